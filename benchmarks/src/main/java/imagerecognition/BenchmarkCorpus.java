@@ -0,0 +1,251 @@
+package imagerecognition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Scene and query image pair shared by the benchmarks. Synthetic scenes are drawn from a fixed
+ * seed so every run and every machine measures the same pixels. Real scenes put the checked-in
+ * button image from the example project on the same background. Device scenes are screenshots
+ * captured from devices and checked in under corpus/device, listed in its index with the
+ * rectangle of the query image. The query image is always the exact crop of the scene where
+ * it was placed, so its true location is known.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkCorpus {
+
+    static {
+        AkazeImageFinder.setupOpenCVEnv();
+    }
+
+    private static final long SEED = 20170601L;
+    private static final String REAL_QUERY_RESOURCE = "/corpus/button.png";
+    private static final String DEVICE_DIRECTORY = "/corpus/device/";
+    private static final int BATCH_SIZE = 4;
+
+    /** Scene size as portrait width x height. */
+    @Param({"720x1280", "1080x1920", "1440x2560"})
+    public String resolution;
+
+    /**
+     * Width of the query image as a fraction of the scene width. Much smaller query images have
+     * too few AKAZE keypoints to be found by features alone. Device scenes use the query image
+     * of their index entry instead.
+     */
+    @Param({"0.3", "0.6", "0.9"})
+    public double querySize;
+
+    /**
+     * synthetic, real or device. Device scenes are only run when selected with -p source=device,
+     * for the resolutions that have a screenshot in the corpus.
+     */
+    @Param({"synthetic", "real"})
+    public String source;
+
+    @Setup(Level.Trial)
+    public void createCorpus() throws IOException {
+        String[] dimensions = resolution.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+
+        Random random = new Random(SEED + width);
+        int queryWidth = (int) (width * querySize);
+        if ("device".equals(source)) {
+            readDeviceScene(width, height);
+        } else if ("real".equals(source)) {
+            sceneImage = drawBackground(width, height, random);
+            Mat button = readResource(REAL_QUERY_RESOURCE);
+            int queryHeight = (int) Math.round(button.rows() * (double) queryWidth / button.cols());
+            queryRect = new Rect((width - queryWidth) / 2, height * 3 / 5, queryWidth, queryHeight);
+            Mat scaled = new Mat();
+            Imgproc.resize(button, scaled, new Size(queryWidth, queryHeight), 0, 0, Imgproc.INTER_AREA);
+            scaled.copyTo(sceneImage.submat(queryRect));
+            scaled.release();
+            button.release();
+        } else {
+            sceneImage = drawBackground(width, height, random);
+            int queryHeight = queryWidth / 2;
+            queryRect = new Rect(width / 8, height / 3, queryWidth, queryHeight);
+            drawShapes(sceneImage.submat(queryRect), 12, random);
+        }
+        queryImage = sceneImage.submat(queryRect).clone();
+
+        directory = Files.createTempDirectory("imagerecognition-benchmark").toFile();
+        sceneFile = new File(directory, "scene.png").getAbsolutePath();
+        queryFile = new File(directory, "query.png").getAbsolutePath();
+        Imgcodecs.imwrite(sceneFile, sceneImage);
+        Imgcodecs.imwrite(queryFile, queryImage);
+        // Copies under other names are searched as separate query images in batch searches
+        queryFiles = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            File copy = new File(directory, "query" + i + ".png");
+            Files.copy(new File(queryFile).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            queryFiles.add(copy.getAbsolutePath());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCorpus() {
+        sceneImage.release();
+        queryImage.release();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Copies the scene to a work file and returns its path. Searches write the annotated scene
+     * next to the file they read, so a copy per thread keeps concurrent searches from writing
+     * the same annotated file.
+     */
+    public String copySceneToWorkFile(String name) throws IOException {
+        File workFile = new File(directory, name + ".png");
+        Files.copy(new File(sceneFile).toPath(), workFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return workFile.getAbsolutePath();
+    }
+
+    public Mat getSceneImage() {
+        return sceneImage;
+    }
+
+    public Mat getQueryImage() {
+        return queryImage;
+    }
+
+    public String getSceneFile() {
+        return sceneFile;
+    }
+
+    public String getQueryFile() {
+        return queryFile;
+    }
+
+    public List<String> getQueryFiles() {
+        return queryFiles;
+    }
+
+    /**
+     * Where the query image was placed, in scene pixels.
+     */
+    public Rect getQueryRect() {
+        return queryRect;
+    }
+
+    /**
+     * Reads the first device screenshot of the given size listed in corpus/device/index.txt,
+     * where each line is the file name of a screenshot followed by the x, y, width and height
+     * of the query image in it.
+     */
+    private void readDeviceScene(int width, int height) throws IOException {
+        String index = new String(readResourceBytes(DEVICE_DIRECTORY + "index.txt"), StandardCharsets.UTF_8);
+        for (String line : index.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 5) {
+                throw new IOException("Malformed corpus index line: " + line);
+            }
+            Mat scene = readResource(DEVICE_DIRECTORY + fields[0]);
+            if (scene.cols() != width || scene.rows() != height) {
+                scene.release();
+                continue;
+            }
+            sceneImage = scene;
+            queryRect = new Rect(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+            return;
+        }
+        throw new IOException("No " + resolution + " device screenshot in " + DEVICE_DIRECTORY + "index.txt");
+    }
+
+    private static Mat drawBackground(int width, int height, Random random) {
+        Mat image = new Mat(height, width, CvType.CV_8UC3, new Scalar(236, 236, 236));
+        // Rows of list items with text, roughly what a mobile screen looks like
+        int rowHeight = height / 16;
+        for (int y = 0; y < height; y += rowHeight) {
+            Imgproc.line(image, new Point(0, y), new Point(width, y), new Scalar(200, 200, 200), 2);
+            Imgproc.putText(image, "Item " + random.nextInt(10000), new Point(width / 20, y + rowHeight * 0.6),
+                    Core.FONT_HERSHEY_SIMPLEX, rowHeight / 60.0, new Scalar(60, 60, 60), 2);
+        }
+        drawShapes(image, 40, random);
+        return image;
+    }
+
+    private static void drawShapes(Mat image, int count, Random random) {
+        int width = image.cols();
+        int height = image.rows();
+        int maxSize = Math.max(4, Math.min(width, height) / 4);
+        for (int i = 0; i < count; i++) {
+            Scalar color = new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            Point corner = new Point(random.nextInt(width), random.nextInt(height));
+            int size = 4 + random.nextInt(maxSize);
+            if (random.nextBoolean()) {
+                Imgproc.rectangle(image, corner, new Point(corner.x + size, corner.y + size * 0.6), color, -1);
+            } else {
+                Imgproc.circle(image, corner, size / 2, color, 3);
+            }
+        }
+    }
+
+    private static Mat readResource(String name) throws IOException {
+        MatOfByte encoded = new MatOfByte(readResourceBytes(name));
+        try {
+            return Imgcodecs.imdecode(encoded, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static byte[] readResourceBytes(String name) throws IOException {
+        try (InputStream in = BenchmarkCorpus.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Corpus file not found: " + name);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private Mat sceneImage;
+    private Mat queryImage;
+    private Rect queryRect;
+    private File directory;
+    private String sceneFile;
+    private String queryFile;
+    private List<String> queryFiles;
+}
@@ -0,0 +1,99 @@
+package imagerecognition;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import objects.ImageLocation;
+import objects.ImageRecognitionSettings;
+import objects.PlatformType;
+import objects.RecognitionMode;
+
+/**
+ * End-to-end searches through the static ImageRecognition API on a scene file: decoding,
+ * resizing, feature extraction, matching, validation and writing the annotated scene. Searching
+ * near the last location is turned off so that every invocation does a full search. Query image
+ * features stay cached between invocations, as they do in a test run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FindImageBenchmark {
+
+    @Param({"FEATURES", "TEMPLATE_THEN_FEATURES"})
+    public RecognitionMode recognitionMode;
+
+    /** Threads of the pool the query images of a batch search are matched on. */
+    @Param({"1", "2", "4"})
+    public int matchingThreads;
+
+    @Setup(Level.Trial)
+    public void prepare(BenchmarkCorpus corpus) throws Exception {
+        matchingPool = new ForkJoinPool(matchingThreads);
+        ImageRecognition.setMatchingPool(matchingPool);
+        // No device is connected, the screen is as large as the scene
+        Size screenSize = new Size(corpus.getSceneImage().cols(), corpus.getSceneImage().rows());
+        ImageRecognition.session(PlatformType.ANDROID).getScreenGeometryCache().setScreenSize(PlatformType.ANDROID, null, screenSize);
+
+        settings = new ImageRecognitionSettings();
+        settings.setRecognitionMode(recognitionMode);
+        settings.setSearchNearLastLocation(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() throws InterruptedException {
+        ImageRecognition.flushScreenshots();
+        ImageRecognition.setMatchingPool(ForkJoinPool.commonPool());
+        matchingPool.shutdown();
+    }
+
+    @Benchmark
+    public ImageLocation findImage(BenchmarkCorpus corpus, WorkScene workScene) throws Exception {
+        ImageLocation location = ImageRecognition.findImage(corpus.getQueryFile(), workScene.sceneFile, settings, PlatformType.ANDROID);
+        if (location == null) {
+            throw new IllegalStateException("Query image was not found in the " + corpus.resolution + " " + corpus.source + " scene");
+        }
+        return location;
+    }
+
+    @Benchmark
+    public Map<String, ImageLocation> findImages(BenchmarkCorpus corpus, WorkScene workScene) throws Exception {
+        return ImageRecognition.findImages(corpus.getQueryFiles(), workScene.sceneFile, settings, PlatformType.ANDROID);
+    }
+
+    /**
+     * Fresh copy of the scene for every invocation, one file per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class WorkScene {
+
+        @Setup(Level.Invocation)
+        public void copyScene(BenchmarkCorpus corpus) throws IOException {
+            sceneFile = corpus.copySceneToWorkFile("work-" + Thread.currentThread().getId());
+        }
+
+        private String sceneFile;
+    }
+
+    private ForkJoinPool matchingPool;
+    private ImageRecognitionSettings settings;
+}
@@ -0,0 +1,170 @@
+package imagerecognition;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import objects.ImageLocation;
+import objects.ImageRecognitionSettings;
+import objects.ImageSearchResult;
+import objects.Scene;
+
+/**
+ * One benchmark per step of a feature search, each fed with the output of the previous steps
+ * computed once per trial. The state is per thread so that running with -t N measures N
+ * callers that each have their own matcher, as concurrent searches do. Native results are
+ * consumed and released inside the benchmark, as a search releases them, so that long runs
+ * do not fill up native memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecognitionStageBenchmark {
+
+    @Setup(Level.Trial)
+    public void prepare(BenchmarkCorpus corpus) {
+        imageFinder = new AkazeImageFinder();
+        matcher = new AkazeMatcher();
+        // The scene owns the image it is created from, so give it a header of the corpus image
+        Mat image = corpus.getSceneImage();
+        scene = imageFinder.createScene(null, image.submat(0, image.rows(), 0, image.cols()));
+        sceneGray = scene.getResizedGrayImage();
+        sceneFeatures = matcher.extractFeatures(sceneGray);
+        queryFeatures = matcher.extractFeatures(corpus.getQueryImage());
+        keypointPairs = matcher.match(queryFeatures, sceneFeatures);
+        settings = new ImageRecognitionSettings();
+        tolerance = settings.getTolerance();
+
+        // Corners of the placed query image at the working resolution, as the checks see them
+        double factor = scene.getResizeFactor();
+        double left = corpus.getQueryRect().x / factor;
+        double top = corpus.getQueryRect().y / factor;
+        double right = (corpus.getQueryRect().x + corpus.getQueryRect().width) / factor;
+        double bottom = (corpus.getQueryRect().y + corpus.getQueryRect().height) / factor;
+        topLeft = new Point(left, top);
+        topRight = new Point(right, top);
+        bottomLeft = new Point(left, bottom);
+        bottomRight = new Point(right, bottom);
+        queryHeight = corpus.getQueryImage().rows();
+        queryWidth = corpus.getQueryImage().cols();
+
+        ImageLocation location = new ImageLocation();
+        location.setTopLeft(new Point(corpus.getQueryRect().x, corpus.getQueryRect().y));
+        location.setTopRight(new Point(corpus.getQueryRect().x + corpus.getQueryRect().width, corpus.getQueryRect().y));
+        location.setBottomLeft(new Point(corpus.getQueryRect().x, corpus.getQueryRect().y + corpus.getQueryRect().height));
+        location.setBottomRight(new Point(corpus.getQueryRect().x + corpus.getQueryRect().width, corpus.getQueryRect().y + corpus.getQueryRect().height));
+        cropResult = new ImageSearchResult(new File(new File(corpus.getSceneFile()).getParentFile(), "crop.png").getAbsolutePath(), location);
+        cropResult.setScene(scene.retain());
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        imageFinder.getScreenshotWriter().shutdown();
+        sceneFeatures.release();
+        queryFeatures.release();
+        cropResult.close();
+        scene.release();
+    }
+
+    @Benchmark
+    public void decodeScene(BenchmarkCorpus corpus, Blackhole blackhole) {
+        Mat image = Imgcodecs.imread(corpus.getSceneFile(), Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+        blackhole.consume(image);
+        image.release();
+    }
+
+    /**
+     * Resizes into a pooled buffer, which is given back when the scene is released.
+     */
+    @Benchmark
+    public int resizeScene(BenchmarkCorpus corpus) {
+        // The scene owns the image it is created from, so give it a header of the corpus image
+        Mat image = corpus.getSceneImage();
+        Scene resized = imageFinder.createScene(null, image.submat(0, image.rows(), 0, image.cols()));
+        int width = resized.getResizedImage().cols();
+        resized.release();
+        return width;
+    }
+
+    @Benchmark
+    public void extractSceneFeatures(Blackhole blackhole) {
+        ImageFeatures features = matcher.extractFeatures(sceneGray);
+        blackhole.consume(features);
+        features.release();
+    }
+
+    @Benchmark
+    public void extractQueryFeatures(BenchmarkCorpus corpus, Blackhole blackhole) {
+        ImageFeatures features = matcher.extractFeatures(corpus.getQueryImage());
+        blackhole.consume(features);
+        features.release();
+    }
+
+    @Benchmark
+    public KeypointPairs matchDescriptors() {
+        return matcher.match(queryFeatures, sceneFeatures);
+    }
+
+    @Benchmark
+    public void findHomography(Blackhole blackhole) {
+        if (keypointPairs.size() < 4) {
+            throw new IllegalStateException("Not enough matches for a homography: " + keypointPairs.size());
+        }
+        Mat homography = HomographyEstimator.estimate(keypointPairs, settings).getHomography();
+        blackhole.consume(homography);
+        homography.release();
+    }
+
+    @Benchmark
+    public boolean validateShape() {
+        double initialRatio = queryHeight / queryWidth;
+        double foundRatio1 = (bottomLeft.y - topLeft.y) / (topRight.x - topLeft.x);
+        double foundRatio2 = (bottomRight.y - topRight.y) / (bottomRight.x - bottomLeft.x);
+        return imageFinder.checkFoundImageDimensions(topLeft, topRight, bottomLeft, bottomRight, tolerance)
+                || imageFinder.checkFoundImageSizeRatio(queryHeight, queryWidth, topLeft, topRight, bottomLeft, bottomRight, initialRatio, foundRatio1, foundRatio2, tolerance);
+    }
+
+    @Benchmark
+    public Mat cropImage() {
+        imageFinder.cropImage(cropResult, false);
+        Mat croppedImage = cropResult.getCroppedImage();
+        croppedImage.release();
+        return croppedImage;
+    }
+
+    private AkazeImageFinder imageFinder;
+    private AkazeMatcher matcher;
+    private Scene scene;
+    private Mat sceneGray;
+    private ImageFeatures sceneFeatures;
+    private ImageFeatures queryFeatures;
+    private KeypointPairs keypointPairs;
+    private ImageRecognitionSettings settings;
+    private double tolerance;
+    private Point topLeft;
+    private Point topRight;
+    private Point bottomLeft;
+    private Point bottomRight;
+    private double queryHeight;
+    private double queryWidth;
+    private ImageSearchResult cropResult;
+}
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import objects.ImageLocation;
 import objects.ImageRecognitionSettings;
 import objects.ImageSearchResult;
+import objects.TextRecognitionSettings;
 
 public class TestdroidImageRecognition extends AbstractAppiumTest {
 
@@ -25,7 +26,9 @@ public class TestdroidImageRecognition extends AbstractAppiumTest {
 
     public ImageLocation findImageOnScreen(String image) throws Exception {
         ImageRecognitionSettings defaultSettings = new ImageRecognitionSettings();
-        return findImageOnScreen(image, defaultSettings).getImageLocation();
+        try (ImageSearchResult foundImage = findImageOnScreen(image, defaultSettings)) {
+            return foundImage.getImageLocation();
+        }
     }
 
     public ImageSearchResult findImageOnScreen(String imageName, ImageRecognitionSettings settings) throws Exception {
@@ -43,9 +46,9 @@ public class TestdroidImageRecognition extends AbstractAppiumTest {
 
 
     public String grabTextFromImage(String image) throws Exception {
-        ImageSearchResult imageSearch = findAndCropImage(image);
-        String text = ImageRecognition.getTextStringFromImage(imageSearch.getScreenshotFile());
-        return text;
+        try (ImageSearchResult imageSearch = findAndCropImage(image)) {
+            return ImageRecognition.getTextStringFromImage(imageSearch.getCroppedImage(), new TextRecognitionSettings());
+        }
     }
 
     public ImageSearchResult findAndCropImage(String image) throws Exception {
@@ -41,7 +41,7 @@ public class AndroidSample extends TestdroidImageRecognition {
             log("Keyboard not present; going forward.");
         }
 
-        findAndCropImage("test.png");
+        findAndCropImage("test.png").close();
         log("Success.");
     }
 }
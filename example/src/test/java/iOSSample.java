@@ -40,7 +40,7 @@ public class iOSSample extends TestdroidImageRecognition {
             log("Keyboard not present; going forward.");
         }
         
-        findAndCropImage("test.png");
+        findAndCropImage("test.png").close();
         log("Success.");
     }
     
@@ -0,0 +1,135 @@
+package imagerecognition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Captures Android frames by reading raw screencap output from the adb stdout pipe. The
+ * pixels are wrapped as they are, without PNG compression on the device.
+ */
+public class AdbFrameSource implements FrameSource {
+
+    private static final int FORMAT_RGBA_8888 = 1;
+    private static final int FORMAT_RGBX_8888 = 2;
+    private static final int FORMAT_RGB_888 = 3;
+
+    private final String adbPath;
+    private final String serial;
+
+    public AdbFrameSource() {
+        this("adb", null);
+    }
+
+    /**
+     * @param adbPath Path to the adb executable, or to a stand-in script in tests
+     * @param serial Serial of the device to capture, or null when only one device is connected
+     */
+    public AdbFrameSource(String adbPath, String serial) {
+        this.adbPath = adbPath;
+        this.serial = serial;
+    }
+
+    @Override
+    public Mat captureFrame() throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(adbPath);
+        if (serial != null) {
+            command.add("-s");
+            command.add(serial);
+        }
+        command.add("exec-out");
+        command.add("screencap");
+
+        Process proc = new ProcessBuilder(command).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(4 * 1024 * 1024);
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Thread outputReader = drain(proc.getInputStream(), output, "adb-stdout");
+        Thread errorReader = drain(proc.getErrorStream(), errors, "adb-stderr");
+        int exitVal;
+        try {
+            exitVal = proc.waitFor();
+            outputReader.join();
+            errorReader.join();
+        } catch (InterruptedException e) {
+            // The capture was cancelled, adb would otherwise keep running and writing the frame
+            proc.destroyForcibly();
+            throw e;
+        }
+        if (exitVal != 0) {
+            throw new IOException("adb screencap exited with value " + exitVal + ": " + new String(errors.toByteArray(), StandardCharsets.UTF_8));
+        }
+        return decodeScreencap(output.toByteArray());
+    }
+
+    /**
+     * Reads a pipe of adb on a thread of its own, so that adb never blocks on a full pipe and
+     * the capturing thread only waits, which can be interrupted.
+     */
+    private static Thread drain(InputStream in, ByteArrayOutputStream out, String name) {
+        Thread thread = new Thread(() -> {
+            try {
+                IOUtils.copy(in, out);
+            } catch (IOException e) {
+                // adb has exited or was killed, a truncated frame is rejected when decoding
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Decodes raw screencap output: width, height and pixel format as little-endian ints,
+     * followed by a color space int on Android 9 and newer, followed by the pixels.
+     */
+    static Mat decodeScreencap(byte[] output) throws IOException {
+        if (output.length < 12) {
+            throw new IOException("screencap output is too short: " + output.length + " bytes");
+        }
+        ByteBuffer header = ByteBuffer.wrap(output).order(ByteOrder.LITTLE_ENDIAN);
+        int width = header.getInt();
+        int height = header.getInt();
+        int format = header.getInt();
+
+        int bytesPerPixel;
+        int conversion;
+        if (format == FORMAT_RGBA_8888 || format == FORMAT_RGBX_8888) {
+            bytesPerPixel = 4;
+            conversion = Imgproc.COLOR_RGBA2BGR;
+        } else if (format == FORMAT_RGB_888) {
+            bytesPerPixel = 3;
+            conversion = Imgproc.COLOR_RGB2BGR;
+        } else {
+            throw new IOException("Unsupported screencap pixel format: " + format);
+        }
+
+        int pixelBytes = width * height * bytesPerPixel;
+        int headerLength = output.length - pixelBytes;
+        if (headerLength != 12 && headerLength != 16) {
+            throw new IOException("Unexpected screencap output size " + output.length + " for " + width + "x" + height);
+        }
+
+        // Copy the whole output once and view the pixels behind the header as the image
+        Mat raw = new Mat(1, output.length, CvType.CV_8UC1);
+        raw.put(0, 0, output);
+        Mat row = raw.submat(0, 1, headerLength, output.length);
+        Mat pixels = row.reshape(bytesPerPixel, height);
+        Mat frame = new Mat();
+        Imgproc.cvtColor(pixels, frame, conversion);
+        pixels.release();
+        row.release();
+        raw.release();
+        return frame;
+    }
+}
@@ -1,9 +1,5 @@
 package imagerecognition;
-import org.apache.commons.io.IOUtils;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.opencv.calib3d.Calib3d;
+import org.apache.commons.io.FilenameUtils;
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
@@ -11,13 +7,26 @@ import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import objects.DebugArtifactMode;
 import objects.ImageLocation;
+import objects.ImageRecognitionSettings;
 import objects.ImageSearchResult;
+import objects.MatchMode;
+import objects.RecognitionMode;
+import objects.RecognitionStrategy;
+import objects.Scene;
 
-import java.io.*;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.opencv.imgproc.Imgproc.resize;
 
@@ -28,26 +37,92 @@ public class AkazeImageFinder {
 
     private static final Logger logger = LoggerFactory.getLogger(AkazeImageFinder.class);
 
-    protected double getSceneHeight(String sceneFile) {
-        Mat img_scene = Imgcodecs.imread(sceneFile, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
-        return img_scene.rows();
+    // Pyramid levels coarser than the working resolution keep at least this short side
+    private static final int MIN_PYRAMID_LEVEL_SIDE = 160;
+    // A query image is first searched at the coarsest level that shows it this large
+    private static final int MIN_QUERY_SIDE = 48;
+    // Query images smaller than this at the working resolution are searched up to the native one
+    private static final int SMALL_QUERY_SIDE = 96;
+
+    private final AkazeMatcher matcher = new AkazeMatcher();
+    private final QueryImageCache queryImageCache;
+    private final ScreenshotWriter screenshotWriter = new ScreenshotWriter();
+    private final StrategyTimings strategyTimings = new StrategyTimings();
+    private final LocationMemory locationMemory = new LocationMemory();
+    private final MatPool matPool = new MatPool();
+    private volatile ForkJoinPool matchingPool = ForkJoinPool.commonPool();
+    private volatile MetricsListener metrics = MetricsListener.NONE;
+    private volatile MatcherWorkerPool externalMatcher;
+
+    /**
+     * Creates an image finder with a query image cache of its own.
+     */
+    public AkazeImageFinder() {
+        this.queryImageCache = new QueryImageCache(matcher);
     }
 
-    protected double getSceneWidth(String sceneFile) {
-        Mat img_scene = Imgcodecs.imread(sceneFile, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
-        return img_scene.cols();
+    /**
+     * @param queryImageCache Query image cache to use, which may be shared with other image finders
+     */
+    public AkazeImageFinder(QueryImageCache queryImageCache) {
+        this.queryImageCache = queryImageCache;
     }
 
-    protected ImageLocation findImage(String queryImageFile, String sceneFile, double tolerance) {
+    protected QueryImageCache getQueryImageCache() {
+        return queryImageCache;
+    }
 
-        long start_time = System.nanoTime();
-        Mat img_object = Imgcodecs.imread(queryImageFile, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
-        Mat img_scene = Imgcodecs.imread(sceneFile, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+    protected ScreenshotWriter getScreenshotWriter() {
+        return screenshotWriter;
+    }
+
+    protected StrategyTimings getStrategyTimings() {
+        return strategyTimings;
+    }
+
+    protected LocationMemory getLocationMemory() {
+        return locationMemory;
+    }
+
+    protected MatPool getMatPool() {
+        return matPool;
+    }
+
+    protected void setMatchingPool(ForkJoinPool matchingPool) {
+        this.matchingPool = matchingPool;
+    }
+
+    protected void setExternalMatcher(MatcherWorkerPool externalMatcher) {
+        this.externalMatcher = externalMatcher;
+    }
 
+    protected void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
 
+    /**
+     * Decodes a screenshot and prepares the downscaled image used for matching. The scene
+     * should be decoded only once per search and passed to every later step.
+     */
+    protected Scene readScene(String sceneFile) throws IOException, InterruptedException {
+        // The file may still be queued for writing by an earlier search
+        screenshotWriter.awaitFile(sceneFile);
+        long start = System.nanoTime();
+        Mat img_scene = Imgcodecs.imread(sceneFile, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+        metrics.recordTime(RecognitionStage.DECODE, null, System.nanoTime() - start);
+        if (img_scene.empty()) {
+            throw new IOException("Screenshot could not be read: " + sceneFile);
+        }
+        return createScene(sceneFile, img_scene);
+    }
+
+    /**
+     * Creates a scene that owns the given image. The resized image is taken from the buffer
+     * pool and given back when the scene is released.
+     */
+    protected Scene createScene(String sceneFile, Mat img_scene) {
         double scene_height = img_scene.rows();
         double scene_width = img_scene.cols();
-        //logger.info("Scene height and width: " + scene_height + ", " + scene_width);
 
         double resizeFactor;
         if (scene_width < scene_height)
@@ -56,88 +131,463 @@ public class AkazeImageFinder {
             resizeFactor = scene_height / 750;
 
         if (resizeFactor > 1) {
-            Mat resized_img_scene = new Mat();
-            Size size = new Size(scene_width / resizeFactor, scene_height / resizeFactor);
-            resize(img_scene, resized_img_scene, size);
-            Imgcodecs.imwrite(sceneFile, resized_img_scene);
-            img_scene = Imgcodecs.imread(sceneFile, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+            int resized_width = (int) (scene_width / resizeFactor);
+            int resized_height = (int) (scene_height / resizeFactor);
+            Mat resized_img_scene = matPool.acquire(resized_height, resized_width, img_scene.type());
+            long start = System.nanoTime();
+            resize(img_scene, resized_img_scene, new Size(resized_width, resized_height));
+            metrics.recordTime(RecognitionStage.RESIZE, null, System.nanoTime() - start);
             logger.info("Image was resized, resize factor is: " + resizeFactor);
-        } else{
-            resizeFactor = 1;        	
+            return new Scene(sceneFile, img_scene, resized_img_scene, resizeFactor, matPool::recycle);
         }
+        return new Scene(sceneFile, img_scene, img_scene, 1);
+    }
 
-        String jsonResults;
-        try {
-            jsonResults = runAkazeMatch(queryImageFile, sceneFile);
-        } catch (InterruptedException | IOException e) {
-            e.printStackTrace();
+    protected ImageLocation findImage(String queryImageFile, Scene sceneImage, ImageRecognitionSettings settings) {
+        return findImages(Collections.singletonList(queryImageFile), sceneImage, settings, null).get(queryImageFile);
+    }
+
+    /**
+     * Searches for several query images in one scene. The scene features are extracted at most
+     * once, the query images are matched in parallel on the matching pool and at most one
+     * annotated copy of the scene is written, with every found image drawn on it.
+     *
+     * Results are the same as searching the query images one by one in the given order and,
+     * when a match mode is given, stopping at the first query image that decides it. Query
+     * images after that one are skipped and reported as not found.
+     *
+     * @param mode Mode used to stop early, or null to search for every query image
+     * @return Location of each query image in the given order, null for images that were not found
+     */
+    protected Map<String, ImageLocation> findImages(List<String> queryImageFiles, Scene sceneImage, ImageRecognitionSettings settings, MatchMode mode) {
+        return findImages(queryImageFiles, sceneImage, settings, mode, 1);
+    }
+
+    /**
+     * Searches for several query images like findImages(queryImageFiles, sceneImage, settings, mode),
+     * with an absolute search region given in units of regionScale screenshot pixels, the
+     * points of iOS devices whose locations are reported in points.
+     */
+    protected Map<String, ImageLocation> findImages(List<String> queryImageFiles, Scene sceneImage, ImageRecognitionSettings settings, MatchMode mode, int regionScale) {
+        try (SceneSearch search = new SceneSearch(sceneImage, settings, searchRegion(sceneImage, settings, regionScale))) {
+            return findImages(queryImageFiles, search, mode);
+        }
+    }
+
+    private Map<String, ImageLocation> findImages(List<String> queryImageFiles, SceneSearch search, MatchMode mode) {
+        Scene sceneImage = search.scene;
+        int count = queryImageFiles.size();
+        ImageLocation[] locations = new ImageLocation[count];
+        List<List<Point[]>> corners = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            corners.add(new ArrayList<>());
+        }
+        AtomicInteger decidedAt = new AtomicInteger(count);
+
+        ForkJoinPool pool = matchingPool;
+        if (count == 1 || pool.getParallelism() == 1) {
+            for (int i = 0; i < count && i <= decidedAt.get(); i++) {
+                searchQuery(i, queryImageFiles.get(i), search, mode, locations, corners.get(i), decidedAt);
+            }
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+            RuntimeException[] failures = new RuntimeException[count];
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    // Not cancelled but skipped once decided, so that joining waits for every
+                    // task that uses the scene features before they are freed
+                    if (index < decidedAt.get()) {
+                        try {
+                            searchQuery(index, queryImageFiles.get(index), search, mode, locations, corners.get(index), decidedAt);
+                        } catch (RuntimeException e) {
+                            failures[index] = e;
+                        }
+                    }
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                pool.execute(task);
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            // Thrown like the sequential search would: the failure of the first query image, and
+            // none of those after the one that decided the search
+            for (int i = 0; i < count && i <= decidedAt.get(); i++) {
+                if (failures[i] != null) {
+                    throw failures[i];
+                }
+            }
+        }
+
+        Map<String, ImageLocation> results = new LinkedHashMap<>();
+        List<Point[]> foundCorners = new ArrayList<>();
+        int decided = decidedAt.get();
+        int foundCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i <= decided) {
+                results.put(queryImageFiles.get(i), locations[i]);
+                foundCorners.addAll(corners.get(i));
+                if (locations[i] != null) {
+                    foundCount++;
+                }
+            } else {
+                results.putIfAbsent(queryImageFiles.get(i), null);
+            }
+        }
+        boolean failed = mode != null ? !mode.isSatisfied(foundCount, count) : foundCount < count;
+        writeScene(sceneImage, foundCorners, search.settings, failed);
+        return results;
+    }
+
+    private void searchQuery(int index, String queryImageFile, SceneSearch search, MatchMode mode, ImageLocation[] locations, List<Point[]> corners, AtomicInteger decidedAt) {
+        QueryImage queryImage = queryImageCache.get(queryImageFile, metrics);
+        if (queryImage != null) {
+            try {
+                locations[index] = findImageNearLastLocation(queryImageFile, queryImage, search, corners);
+            } finally {
+                queryImage.release();
+            }
+        }
+        if (mode != null && mode.isDecidedBy(locations[index] != null)) {
+            decidedAt.accumulateAndGet(index, Math::min);
+        }
+    }
+
+    /**
+     * Searches around the location where the query image was last found in a scene of the same
+     * size, and in the whole scene only when it is not found there.
+     */
+    private ImageLocation findImageNearLastLocation(String queryImageFile, QueryImage queryImage, SceneSearch search, List<Point[]> corners) {
+        int sceneWidth = search.scene.getWidth();
+        int sceneHeight = search.scene.getHeight();
+        ImageLocation location = null;
+        if (search.settings.isSearchNearLastLocation()) {
+            Rect window = lastLocationWindow(locationMemory.get(queryImageFile, sceneWidth, sceneHeight), search);
+            if (window != null) {
+                logger.info("Searching near the last location of " + queryImageFile);
+                long start = System.nanoTime();
+                List<Point[]> windowCorners = new ArrayList<>();
+                try (SceneSearch windowSearch = new SceneSearch(search.scene, search.settings, window)) {
+                    location = findImage(queryImage, windowSearch, windowCorners);
+                }
+                locationMemory.recordWindowSearch(location != null, System.nanoTime() - start);
+                if (location != null) {
+                    corners.addAll(windowCorners);
+                }
+            }
+        }
+        if (location == null) {
+            long start = System.nanoTime();
+            location = findImage(queryImage, search, corners);
+            locationMemory.recordFullSearch(System.nanoTime() - start);
+        }
+        if (location != null) {
+            locationMemory.put(queryImageFile, sceneWidth, sceneHeight, location);
+        } else {
+            locationMemory.remove(queryImageFile, sceneWidth, sceneHeight);
+        }
+        return location;
+    }
+
+    private static Rect lastLocationWindow(Rect lastLocation, SceneSearch search) {
+        if (lastLocation == null) {
             return null;
         }
-        if (jsonResults == null) {
+        double padding = search.settings.getLastLocationPadding();
+        int padX = (int) Math.ceil(lastLocation.width * padding);
+        int padY = (int) Math.ceil(lastLocation.height * padding);
+        int x0 = lastLocation.x - padX;
+        int y0 = lastLocation.y - padY;
+        int x1 = lastLocation.x + lastLocation.width + padX;
+        int y1 = lastLocation.y + lastLocation.height + padY;
+        Rect bounds = search.getRegion();
+        x0 = Math.max(x0, bounds.x);
+        y0 = Math.max(y0, bounds.y);
+        x1 = Math.min(x1, bounds.x + bounds.width);
+        y1 = Math.min(y1, bounds.y + bounds.height);
+        if (x1 - x0 < 8 || y1 - y0 < 8) {
             return null;
         }
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
 
-        double initial_height = img_object.size().height;
-        double initial_width = img_object.size().width;
-
-        Imgcodecs.imwrite(sceneFile, img_scene);
+    private ImageLocation findImage(QueryImage queryImage, SceneSearch search, List<Point[]> foundCorners) {
+        if (search.settings.getRecognitionMode() == RecognitionMode.TEMPLATE_THEN_FEATURES) {
+            long start = System.nanoTime();
+            ImageLocation location = findTemplate(queryImage, search, search.settings.getTemplateMatchThreshold(), foundCorners);
+            strategyTimings.record(RecognitionStrategy.TEMPLATE, location != null, System.nanoTime() - start);
+            if (location != null) {
+                return location;
+            }
+            logger.info("Template matching did not find the image, falling back to feature matching.");
+        }
+        long start = System.nanoTime();
+        ImageLocation location;
+        if (search.getPyramidTop() > 0) {
+            location = findImageInPyramid(queryImage, search, foundCorners);
+        } else {
+            KeypointPairs keypointPairs = match(queryImage, search);
+            location = findImage(queryImage, search, keypointPairs, search.searchScene.getResizeFactor(), foundCorners);
+        }
+        strategyTimings.record(RecognitionStrategy.FEATURES, location != null, System.nanoTime() - start);
+        return location;
+    }
 
-        //finding homography
-        LinkedList<Point> objList = new LinkedList<>();
-        LinkedList<Point> sceneList = new LinkedList<>();
-        JSONObject jsonObject = getJsonObject(jsonResults);
-        if (jsonObject == null) {
-            logger.error("ERROR: Json file couldn't be processed. ");
+    /**
+     * Finds the query image by normalized cross-correlation at the working resolution of the
+     * scene. Only suitable for images shown at their original scale without rotation.
+     */
+    private ImageLocation findTemplate(QueryImage queryImage, SceneSearch search, double threshold, List<Point[]> foundCorners) {
+        Scene sceneImage = search.searchScene;
+        Mat img_scene = sceneImage.getResizedGrayImage();
+        Mat template = queryImage.getGrayTemplate(sceneImage.getResizeFactor());
+        if (template.cols() > img_scene.cols() || template.rows() > img_scene.rows() || template.cols() < 2 || template.rows() < 2) {
             return null;
         }
-        JSONArray keypointsPairs;
-        try {
-            keypointsPairs = jsonObject.getJSONArray("keypoint-pairs");
-        } catch (JSONException e) {
-            e.printStackTrace();
+        long start = System.nanoTime();
+        Mat scores = new Mat();
+        Imgproc.matchTemplate(img_scene, template, scores, Imgproc.TM_CCOEFF_NORMED);
+        Core.MinMaxLocResult best = Core.minMaxLoc(scores);
+        scores.release();
+        metrics.recordTime(RecognitionStage.MATCHING, queryImage.getPath(), System.nanoTime() - start);
+        if (best.maxVal < threshold) {
+            logger.info("Best template match score " + round(best.maxVal, 3) + " is below threshold " + threshold);
             return null;
         }
-        Point[] objPoints = new Point[keypointsPairs.length()];
-        Point[] scenePoints = new Point[keypointsPairs.length()];
-        int j = 0;
-        for (int i = 0; i < keypointsPairs.length(); i++) {
-            try {
-                objPoints[j] = new Point(Integer.parseInt(keypointsPairs.getJSONObject(i).optString("x1")), Integer.parseInt(keypointsPairs.getJSONObject(i).optString("y1")));
-                scenePoints[j] = new Point(Integer.parseInt(keypointsPairs.getJSONObject(i).optString("x2")), Integer.parseInt(keypointsPairs.getJSONObject(i).optString("y2")));
-                j++;
-            } catch (JSONException e) {
-                e.printStackTrace();
-                return null;
+
+        double resizeFactor = sceneImage.getResizeFactor();
+        double x = best.maxLoc.x + search.regionX / resizeFactor;
+        double y = best.maxLoc.y + search.regionY / resizeFactor;
+        double width = template.cols();
+        double height = template.rows();
+
+        Point[] scene_corners = {new Point(x, y), new Point(x + width, y), new Point(x + width, y + height), new Point(x, y + height)};
+        foundCorners.add(toWorkingResolution(scene_corners, resizeFactor, search.scene));
+
+        ImageLocation location = new ImageLocation();
+        location.setTopLeft(new Point(x * resizeFactor, y * resizeFactor));
+        location.setTopRight(new Point((x + width) * resizeFactor, y * resizeFactor));
+        location.setBottomRight(new Point((x + width) * resizeFactor, (y + height) * resizeFactor));
+        location.setBottomLeft(new Point(x * resizeFactor, (y + height) * resizeFactor));
+        location.setCenter(new Point((x + width / 2) * resizeFactor, (y + height / 2) * resizeFactor));
+        location.setResizeFactor(resizeFactor);
+        location.setRecognitionStrategy(RecognitionStrategy.TEMPLATE);
+        location.setSceneBounds(sceneBounds(scene_corners, resizeFactor));
+        logger.info("Image found by template matching with score " + round(best.maxVal, 3) + " at coordinates: " + (int) location.getCenter().x + ", " + (int) location.getCenter().y + " on screen.");
+        return location;
+    }
+
+    /**
+     * Moves keypoint pairs matched in the search region to full scene coordinates, so that the
+     * rotation handling and the returned location use the whole screenshot.
+     */
+    private ImageLocation findImage(QueryImage queryImage, SceneSearch search, KeypointPairs keypointPairs, double resizeFactor, List<Point[]> foundCorners) {
+        keypointPairs.translateScene((float) (search.regionX / resizeFactor), (float) (search.regionY / resizeFactor));
+        return findImage(queryImage, search.scene, keypointPairs, resizeFactor, search.settings, foundCorners);
+    }
+
+    /**
+     * Coarse-to-fine search: matches against the whole scene at the coarsest level that still
+     * shows the query image MIN_QUERY_SIDE pixels large, but not finer than the working
+     * resolution, and then refines the candidate in a window around it at each finer level up
+     * to the working resolution. Query images smaller than SMALL_QUERY_SIDE at the working
+     * resolution are refined further, up to the native resolution, and when they are not found
+     * at the working resolution the whole scene is searched again at the native resolution.
+     * Stops refining at the first level where the window gives too few matches and uses the
+     * last level that did.
+     */
+    private ImageLocation findImageInPyramid(QueryImage queryImage, SceneSearch search, List<Point[]> foundCorners) {
+        Mat query = queryImage.getImage();
+        double querySide = Math.min(query.cols(), query.rows());
+        boolean small = querySide / search.getPyramidFactor(search.workingLevel) < SMALL_QUERY_SIDE;
+        int finestLevel = small ? 0 : search.workingLevel;
+        int level = search.getPyramidTop();
+        while (level > search.workingLevel && querySide / search.getPyramidFactor(level) < MIN_QUERY_SIDE) {
+            level--;
+        }
+        logger.info("Searching the whole scene at pyramid level " + level + ", refining up to level " + finestLevel);
+        KeypointPairs keypointPairs = match(queryImage, search, level);
+        if (keypointPairs.size() < 4 && small && level > 0) {
+            logger.info("Small image not found at pyramid level " + level + ", searching the whole scene at level 0");
+            level = 0;
+            keypointPairs = match(queryImage, search, level);
+        }
+        while (level > finestLevel && keypointPairs.size() >= 4) {
+            KeypointPairs refined = refineInWindow(queryImage, keypointPairs, search, level, level - 1);
+            if (refined.size() < 4) {
+                logger.info("Refinement at pyramid level " + (level - 1) + " found too few matches, using level " + level);
+                break;
             }
+            keypointPairs = refined;
+            level--;
         }
+        return findImage(queryImage, search, keypointPairs, search.getPyramidFactor(level), foundCorners);
+    }
 
-        for (int i = 0; i < objPoints.length; i++) {
-            Point objectPoint = new Point(objPoints[i].x, objPoints[i].y);
-            objList.addLast(objectPoint);
-            Point scenePoint = new Point(scenePoints[i].x - initial_width, scenePoints[i].y);
-            sceneList.addLast(scenePoint);
+    private KeypointPairs refineInWindow(QueryImage queryImage, KeypointPairs keypointPairs, SceneSearch search, int coarseLevel, int fineLevel) {
+        Point[] scene_corners;
+        try (MatArena arena = new MatArena()) {
+            Mat H = arena.track(HomographyEstimator.estimate(keypointPairs, search.settings).getHomography());
+            if (H.empty()) {
+                return new KeypointPairs(0);
+            }
+            scene_corners = findSceneCorners(queryImage.getImage(), H);
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Point corner : scene_corners) {
+            minX = Math.min(minX, corner.x);
+            minY = Math.min(minY, corner.y);
+            maxX = Math.max(maxX, corner.x);
+            maxY = Math.max(maxY, corner.y);
         }
 
-        if ((objList.size() < 4) || (sceneList.size() < 4)) {
-            logger.error("Not enough matches found. ");
-            return null;
+        Mat fineImage = search.getPyramidLevel(fineLevel);
+        double scale = search.getPyramidFactor(coarseLevel) / search.getPyramidFactor(fineLevel);
+        double windowScale = search.settings.getRefinementWindowScale();
+        double centerX = (minX + maxX) / 2 * scale;
+        double centerY = (minY + maxY) / 2 * scale;
+        double halfWidth = (maxX - minX) * scale * windowScale / 2;
+        double halfHeight = (maxY - minY) * scale * windowScale / 2;
+        int x0 = (int) Math.max(0, Math.floor(centerX - halfWidth));
+        int y0 = (int) Math.max(0, Math.floor(centerY - halfHeight));
+        int x1 = (int) Math.min(fineImage.cols(), Math.ceil(centerX + halfWidth));
+        int y1 = (int) Math.min(fineImage.rows(), Math.ceil(centerY + halfHeight));
+        if (x1 - x0 < 8 || y1 - y0 < 8) {
+            logger.info("Candidate at pyramid level " + coarseLevel + " lies outside the scene.");
+            return new KeypointPairs(0);
+        }
+
+        Rect window = new Rect(x0, y0, x1 - x0, y1 - y0);
+        logger.info("Refining candidate at pyramid level " + fineLevel + " in window " + window);
+        Mat windowImage = fineImage.submat(window);
+        KeypointPairs refined;
+        MatcherWorkerPool external = externalMatcher;
+        if (external != null) {
+            refined = match(external, queryImage, search.getQueryScale(fineLevel), windowImage);
+        } else {
+            long start = System.nanoTime();
+            ImageFeatures windowFeatures = matcher.extractFeatures(windowImage);
+            metrics.recordTime(RecognitionStage.EXTRACTION, queryImage.getPath(), System.nanoTime() - start);
+            refined = match(queryImage, search.getQueryScale(fineLevel), windowFeatures, search.settings);
+            windowFeatures.release();
+        }
+        windowImage.release();
+        refined.translateScene(x0, y0);
+        return refined;
+    }
+
+    private KeypointPairs match(QueryImage queryImage, SceneSearch search) {
+        MatcherWorkerPool external = externalMatcher;
+        if (external != null) {
+            return match(external, queryImage, 1, search.searchScene.getResizedGrayImage());
+        }
+        return match(queryImage, 1, search.getSceneFeatures(), search.settings);
+    }
+
+    /**
+     * Matches against the whole scene at a pyramid level, with the features of the level
+     * shared by every query image searched in the scene.
+     */
+    private KeypointPairs match(QueryImage queryImage, SceneSearch search, int level) {
+        if (level == search.workingLevel) {
+            return match(queryImage, search);
+        }
+        MatcherWorkerPool external = externalMatcher;
+        if (external != null) {
+            return match(external, queryImage, search.getQueryScale(level), search.getPyramidLevel(level));
+        }
+        return match(queryImage, search.getQueryScale(level), search.getPyramidFeatures(level), search.settings);
+    }
+
+    /**
+     * Matches on an external worker, which extracts the features of both images itself. A
+     * failed worker is reported as no matches, as a failed akaze_match run always was.
+     *
+     * @param queryScale Factor the query image is scaled down by before matching, the pairs are
+     * returned in query image pixels
+     */
+    private KeypointPairs match(MatcherWorkerPool external, QueryImage queryImage, double queryScale, Mat sceneGray) {
+        long start = System.nanoTime();
+        // The scaled template is owned by the query image
+        Mat queryGray = queryScale != 1 ? queryImage.getGrayTemplate(queryScale) : AkazeMatcher.toGray(queryImage.getImage());
+        try {
+            KeypointPairs keypointPairs = external.match(queryGray, sceneGray);
+            keypointPairs.scaleObject((float) queryScale);
+            return keypointPairs;
+        } catch (IOException e) {
+            logger.error("ERROR: Image recognition with the external matcher failed.", e);
+            return new KeypointPairs(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new KeypointPairs(0);
+        } finally {
+            if (queryScale == 1 && queryGray != queryImage.getImage()) {
+                queryGray.release();
+            }
+            metrics.recordTime(RecognitionStage.MATCHING, queryImage.getPath(), System.nanoTime() - start);
         }
+    }
+
+    /**
+     * @param queryScale Factor the query image is scaled down by before matching, the pairs are
+     * returned in query image pixels
+     */
+    private KeypointPairs match(QueryImage queryImage, double queryScale, ImageFeatures sceneFeatures, ImageRecognitionSettings settings) {
+        ImageFeatures queryFeatures = queryScale != 1 ? queryImage.getScaledFeatures(queryScale, matcher) : queryImage.getFeatures();
+        long start = System.nanoTime();
+        KeypointPairs keypointPairs = matcher.match(queryFeatures, sceneFeatures, settings);
+        metrics.recordTime(RecognitionStage.MATCHING, queryImage.getPath(), System.nanoTime() - start);
+        keypointPairs.scaleObject((float) queryScale);
+        return keypointPairs;
+    }
 
-        MatOfPoint2f obj = new MatOfPoint2f();
-        obj.fromList(objList);
-        MatOfPoint2f scene = new MatOfPoint2f();
-        scene.fromList(sceneList);
+    /**
+     * Computes the location of the query image from keypoint pairs whose scene coordinates are
+     * in a version of the scene downscaled by the given resize factor.
+     */
+    private ImageLocation findImage(QueryImage queryImage, Scene sceneImage, KeypointPairs keypointPairs, double resizeFactor, ImageRecognitionSettings settings, List<Point[]> foundCorners) {
 
-        Mat H = Calib3d.findHomography(obj, scene);
+        Mat img_object = queryImage.getImage();
+        double scene_height = sceneImage.getHeight();
+        double scene_width = sceneImage.getWidth();
+
+        double initial_height = img_object.size().height;
+        double initial_width = img_object.size().width;
+        double tolerance = settings.getTolerance();
 
-        Mat scene_corners = drawFoundHomography(img_object, sceneFile, H);
-        Point top_left = new Point(scene_corners.get(0, 0));
-        Point top_right = new Point(scene_corners.get(1, 0));
-        Point bottom_left = new Point(scene_corners.get(3, 0));
-        Point bottom_right = new Point(scene_corners.get(2, 0));
+        //finding homography
+        if (keypointPairs.size() < 4) {
+            logger.error("Not enough matches found. ");
+            return null;
+        }
+
+        long start_time = System.nanoTime();
+        Point[] scene_corners;
+        double rotationAngle;
+        int inlierCount;
+        try (MatArena arena = new MatArena()) {
+            HomographyEstimator.Estimate estimate = HomographyEstimator.estimate(keypointPairs, settings);
+            Mat H = arena.track(estimate.getHomography());
+            if (H.empty()) {
+                metrics.recordTime(RecognitionStage.HOMOGRAPHY, queryImage.getPath(), System.nanoTime() - start_time);
+                logger.error("No homography found for " + keypointPairs.size() + " matches.");
+                return null;
+            }
+            inlierCount = estimate.getInlierCount();
+            logger.info("Homography agrees with " + inlierCount + " of " + keypointPairs.getMatchCount() + " matches.");
 
+            scene_corners = findSceneCorners(img_object, H);
+            rotationAngle = round(getComponents(H) * 57.3 / 90, 0);
+        }
+        metrics.recordTime(RecognitionStage.HOMOGRAPHY, queryImage.getPath(), System.nanoTime() - start_time);
+        foundCorners.add(toWorkingResolution(scene_corners, resizeFactor, sceneImage));
+        Point top_left = scene_corners[0];
+        Point top_right = scene_corners[1];
+        Point bottom_left = scene_corners[3];
+        Point bottom_right = scene_corners[2];
 
-        double rotationAngle = round(getComponents(H) * 57.3 / 90, 0);
 
         Point[] objectOnScene = new Point[5];
 
@@ -181,14 +631,18 @@ public class AkazeImageFinder {
         double found_ratio2 = (bottom_right.y - top_right.y) / (bottom_right.x - bottom_left.x);
 
         long end_time = System.nanoTime();
-        int difference = (int) ((end_time - start_time) / 1e6 / 1000);
-        logger.info("==> Image finder took: " + difference + " secs.");
+        logger.info("==> Image finder took: " + String.format("%.1f", (end_time - start_time) / 1e6) + " ms.");
 
-        if (checkFoundImageDimensions(top_left, top_right, bottom_left, bottom_right, tolerance)){
-            return null;        	
+        boolean wrongShape = checkFoundImageDimensions(top_left, top_right, bottom_left, bottom_right, tolerance);
+        boolean wrongSize = !wrongShape && checkFoundImageSizeRatio(initial_height, initial_width, top_left, top_right, bottom_left, bottom_right, initial_ratio, found_ratio1, found_ratio2, tolerance);
+        metrics.recordTime(RecognitionStage.VALIDATION, queryImage.getPath(), System.nanoTime() - end_time);
+        if (wrongShape) {
+            metrics.increment(RecognitionCounter.DIMENSION_REJECTION, queryImage.getPath());
+            return null;
         }
-        if (checkFoundImageSizeRatio(initial_height, initial_width, top_left, top_right, bottom_left, bottom_right, initial_ratio, found_ratio1, found_ratio2, tolerance)){
-            return null;        	
+        if (wrongSize) {
+            metrics.increment(RecognitionCounter.RATIO_REJECTION, queryImage.getPath());
+            return null;
         }
 
         //calculate points in original orientation
@@ -236,56 +690,173 @@ public class AkazeImageFinder {
         location.setBottomLeft(points[3]);
         location.setCenter(centerOriginal);
         location.setResizeFactor(resizeFactor);
+        location.setRecognitionStrategy(RecognitionStrategy.FEATURES);
+        location.setMatchCount(keypointPairs.getMatchCount());
+        location.setInlierCount(inlierCount);
+        location.setSceneBounds(sceneBounds(scene_corners, resizeFactor));
 
         return location;
     }
 
-    protected void cropImage(ImageSearchResult imageDto) {
-        double x = imageDto.getImageLocation().getTopLeft().x;
-        double y = imageDto.getImageLocation().getTopLeft().y;
-        double width = imageDto.getImageLocation().getWidth();
-        double height = imageDto.getImageLocation().getHeight();
+    /**
+     * Sets the found image on the result as a view of the full resolution screenshot, without
+     * copying pixels. The screenshot file is left as it is.
+     *
+     * @param save Whether to also write the cropped image to a file of its own next to the
+     * screenshot, in the background
+     */
+    protected void cropImage(ImageSearchResult imageDto, boolean save) {
+        long start = System.nanoTime();
+        ImageLocation location = imageDto.getImageLocation();
+        // Crop from the full resolution screenshot, image locations are in screen coordinates
+        Mat img_object = imageDto.getScene().getImage();
+        Rect croppedRect = getCroppedRect(location, img_object.size());
+        log(img_object.toString());
+        log(croppedRect.toString());
+        if (croppedRect.area() == 0) {
+            logger.warn("Found image lies outside the screenshot, nothing to crop.");
+            return;
+        }
+        imageDto.setCroppedImage(img_object.submat(croppedRect));
         String scene_filename = imageDto.getScreenshotFile();
-        int scaleFactor = imageDto.getImageLocation().getScaleFactor();
-        double resizeFactor = imageDto.getImageLocation().getResizeFactor();
+        if (save && scene_filename != null) {
+            String croppedFile = FilenameUtils.removeExtension(scene_filename) + "_cropped.png";
+            screenshotWriter.write(croppedFile, imageDto.getScene(), croppedRect);
+            imageDto.setCroppedImageFile(croppedFile);
+        }
+        metrics.recordTime(RecognitionStage.CROP, null, System.nanoTime() - start);
+    }
 
-        Mat img_object = Imgcodecs.imread(scene_filename);
+    /**
+     * Bounding box of the found corners in full resolution pixels, clipped to the screenshot.
+     * Rounded outwards so that no part of the found image is cut off.
+     */
+    static Rect getCroppedRect(ImageLocation location, Size imageSize) {
+        double scaleFactor = location.getScaleFactor();
+        Point[] corners = {location.getTopLeft(), location.getTopRight(), location.getBottomRight(), location.getBottomLeft()};
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        for (Point corner : corners) {
+            left = Math.min(left, corner.x * scaleFactor);
+            top = Math.min(top, corner.y * scaleFactor);
+            right = Math.max(right, corner.x * scaleFactor);
+            bottom = Math.max(bottom, corner.y * scaleFactor);
+        }
+        int x = (int) Math.max(0, Math.floor(left));
+        int y = (int) Math.max(0, Math.floor(top));
+        int x2 = (int) Math.min(imageSize.width, Math.ceil(right));
+        int y2 = (int) Math.min(imageSize.height, Math.ceil(bottom));
+        return new Rect(x, y, Math.max(0, x2 - x), Math.max(0, y2 - y));
+    }
 
-        int x_resized = (int) (x / resizeFactor)*scaleFactor;
-        int y_resized = (int) (y / resizeFactor)*scaleFactor;
-        int width_resized = (int) (width / resizeFactor)*scaleFactor;
-        int height_resized = (int) (height / resizeFactor)*scaleFactor;
-        Rect croppedRect = new Rect(x_resized, y_resized, width_resized, height_resized);
-        log(img_object.toString());
-        log(croppedRect.toString());
-        Mat croppedImage = new Mat(img_object, croppedRect);
-        Imgcodecs.imwrite(scene_filename, croppedImage);
+    /**
+     * Bounding box in screenshot pixels of corners found in a scene downscaled by the given
+     * resize factor.
+     */
+    private static Rect sceneBounds(Point[] scene_corners, double resizeFactor) {
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        for (Point corner : scene_corners) {
+            left = Math.min(left, corner.x * resizeFactor);
+            top = Math.min(top, corner.y * resizeFactor);
+            right = Math.max(right, corner.x * resizeFactor);
+            bottom = Math.max(bottom, corner.y * resizeFactor);
+        }
+        int x = (int) Math.floor(left);
+        int y = (int) Math.floor(top);
+        return new Rect(x, y, (int) Math.ceil(right) - x, (int) Math.ceil(bottom) - y);
     }
 
-    private Mat drawFoundHomography(Mat img_object, String filename, Mat h) {
-        Mat obj_corners = new Mat(4, 1, CvType.CV_32FC2);
-        Mat scene_corners = new Mat(4, 1, CvType.CV_32FC2);
+    private Point[] findSceneCorners(Mat img_object, Mat h) {
+        try (MatArena arena = new MatArena()) {
+            Mat obj_corners = arena.track(new Mat(4, 1, CvType.CV_32FC2));
+            Mat scene_corners = arena.newMat();
 
-        obj_corners.put(0, 0, 0, 0);
-        obj_corners.put(1, 0, img_object.cols(), 0);
-        obj_corners.put(2, 0, img_object.cols(), img_object.rows());
-        obj_corners.put(3, 0, 0, img_object.rows());
+            obj_corners.put(0, 0, 0, 0);
+            obj_corners.put(1, 0, img_object.cols(), 0);
+            obj_corners.put(2, 0, img_object.cols(), img_object.rows());
+            obj_corners.put(3, 0, 0, img_object.rows());
 
-        Core.perspectiveTransform(obj_corners, scene_corners, h);
+            Core.perspectiveTransform(obj_corners, scene_corners, h);
+            Point[] corners = new Point[4];
+            for (int i = 0; i < 4; i++) {
+                corners[i] = new Point(scene_corners.get(i, 0));
+            }
+            return corners;
+        }
+    }
 
-        Mat img = Imgcodecs.imread(filename, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+    /**
+     * Scales corners found at some resize factor to the working resolution of the scene, which
+     * is what the annotated copy of the scene is drawn on.
+     */
+    private static Point[] toWorkingResolution(Point[] scene_corners, double resizeFactor, Scene scene) {
+        double scale = resizeFactor / scene.getResizeFactor();
+        if (scale == 1) {
+            return scene_corners;
+        }
+        Point[] scaled = new Point[scene_corners.length];
+        for (int i = 0; i < scene_corners.length; i++) {
+            scaled[i] = new Point(scene_corners[i].x * scale, scene_corners[i].y * scale);
+        }
+        return scaled;
+    }
+
+    /**
+     * Writes an annotated copy of the scene once per search, depending on the debug artifact
+     * mode, with the homography of every query image that got one drawn on it. The copy goes
+     * to a file of its own next to the screenshot, with _annotated added to its name, and
+     * nothing is written when there is nothing to draw. The screenshot file is never touched.
+     * Rendering and encoding are done on the writer thread.
+     */
+    private void writeScene(Scene scene, List<Point[]> foundCorners, ImageRecognitionSettings settings, boolean failed) {
+        if (scene.getFile() == null) {
+            return;
+        }
+        DebugArtifactMode mode = settings.getDebugArtifactMode();
+        if (mode == DebugArtifactMode.OFF || (mode == DebugArtifactMode.ON_FAILURE && !failed)) {
+            return;
+        }
+        if (foundCorners.isEmpty()) {
+            return;
+        }
+        String annotatedFile = FilenameUtils.removeExtension(scene.getFile()) + "_annotated.png";
+        screenshotWriter.writeArtifact(annotatedFile, scene, s -> drawFoundHomographies(s.getResizedImage(), foundCorners),
+                settings.getMaxPendingDebugArtifacts(), settings.getDebugArtifactDropPolicy());
+    }
 
-        Imgproc.line(img, new Point(scene_corners.get(0, 0)), new Point(scene_corners.get(1, 0)), new Scalar(0, 255, 0), 4);
-        Imgproc.line(img, new Point(scene_corners.get(1, 0)), new Point(scene_corners.get(2, 0)), new Scalar(0, 255, 0), 4);
-        Imgproc.line(img, new Point(scene_corners.get(2, 0)), new Point(scene_corners.get(3, 0)), new Scalar(0, 255, 0), 4);
-        Imgproc.line(img, new Point(scene_corners.get(3, 0)), new Point(scene_corners.get(0, 0)), new Scalar(0, 255, 0), 4);
+    private Mat drawFoundHomographies(Mat image, List<Point[]> foundCorners) {
+        Mat img = toColor(image);
+        for (Point[] scene_corners : foundCorners) {
+            drawFoundHomography(img, scene_corners);
+        }
+        return img;
+    }
 
-        Imgcodecs.imwrite(filename, img);
+    private void drawFoundHomography(Mat img, Point[] scene_corners) {
+        Imgproc.line(img, scene_corners[0], scene_corners[1], new Scalar(0, 255, 0), 4);
+        Imgproc.line(img, scene_corners[1], scene_corners[2], new Scalar(0, 255, 0), 4);
+        Imgproc.line(img, scene_corners[2], scene_corners[3], new Scalar(0, 255, 0), 4);
+        Imgproc.line(img, scene_corners[3], scene_corners[0], new Scalar(0, 255, 0), 4);
+    }
 
-        return scene_corners;
+    private static Mat toColor(Mat image) {
+        Mat color = new Mat();
+        if (image.channels() == 1) {
+            Imgproc.cvtColor(image, color, Imgproc.COLOR_GRAY2BGR);
+        } else if (image.channels() == 4) {
+            Imgproc.cvtColor(image, color, Imgproc.COLOR_BGRA2BGR);
+        } else {
+            image.copyTo(color);
+        }
+        return color;
     }
 
-    private boolean checkFoundImageSizeRatio(double initial_height, double initial_width, Point top_left, Point top_right, Point bottom_left, Point bottom_right, double initial_ratio, double found_ratio1, double found_ratio2, double tolerance) {
+    boolean checkFoundImageSizeRatio(double initial_height, double initial_width, Point top_left, Point top_right, Point bottom_left, Point bottom_right, double initial_ratio, double found_ratio1, double found_ratio2, double tolerance) {
         //check the image size, if too small incorrect image was found
 
         if ((round(found_ratio1 / initial_ratio, 2) > (1 + tolerance)) || (round(initial_ratio / found_ratio2, 2) > (1 + tolerance))
@@ -306,7 +877,7 @@ public class AkazeImageFinder {
         return false;
     }
 
-    private boolean checkFoundImageDimensions(Point top_left, Point top_right, Point bottom_left, Point bottom_right, double tolerance) {
+    boolean checkFoundImageDimensions(Point top_left, Point top_right, Point bottom_left, Point bottom_right, double tolerance) {
         //check any big differences in height and width on each side
         double left_height = bottom_left.y - top_left.y;
         double right_height = bottom_right.y - top_right.y;
@@ -330,72 +901,11 @@ public class AkazeImageFinder {
         }
     }
 
-    private String runAkazeMatch(String object_filename, String scene_filename) throws InterruptedException, IOException {
-
-        long timestamp = System.currentTimeMillis();
-        String jsonFilename = "./target/keypoints/keypoints_" + timestamp + ".json";
-        //logger.info("Json file should be found at: {}", jsonFilename);
-        File file = new File(jsonFilename);
-        file.getParentFile().mkdirs();
-        String platformName = System.getProperty("os.name");
-        String akazePath;
-        if (platformName.toLowerCase().contains("mac")) {
-            akazePath = "lib/mac/akaze/akaze_match";
-        } else if (platformName.toLowerCase().contains("win")) {
-            akazePath = "lib/win/akaze/akaze_match";
-        } else {
-            akazePath = "lib/linux/akaze/akaze_match";
-        }
-        String[] akazeMatchCommand = {akazePath, object_filename, scene_filename, "--json", jsonFilename, "--dthreshold", "0.00000000001"};
-
-        try {
-            ProcessBuilder p = new ProcessBuilder(akazeMatchCommand);
-            Process proc = p.start();
-            InputStream stdin = proc.getInputStream();
-            InputStreamReader isr = new InputStreamReader(stdin);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            while ((line = br.readLine()) != null)
-                logger.info(line);
-            stdin = proc.getErrorStream();
-            isr = new InputStreamReader(stdin);
-            br = new BufferedReader(isr);
-            while ((line = br.readLine()) != null)
-                logger.info(line);
-            int exitVal = proc.waitFor();
-            if (exitVal != 0)
-                logger.info("Akaze matching process exited with value: " + exitVal);
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
-
-        if (!file.exists()) {
-            logger.error("ERROR: Image recognition with Akaze failed. No json file created.");
-            return null;
-        } else {
-            return jsonFilename;
-        }
-    }
-
     protected static void setupOpenCVEnv() {
         nu.pattern.OpenCV.loadShared();
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
     }
 
-    private JSONObject getJsonObject(String filename) {
-        File jsonFile = new File(filename);
-        InputStream is;
-        try {
-            is = new FileInputStream(jsonFile);
-            String jsonTxt = IOUtils.toString(is);
-            return new JSONObject(jsonTxt);
-
-        } catch (IOException | JSONException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
     protected double getComponents(Mat h) {
 
         double a = h.get(0, 0)[0];
@@ -417,4 +927,195 @@ public class AkazeImageFinder {
     protected static void log(String message) {
         logger.info(message);
     }
+
+    private static Rect searchRegion(Scene scene, ImageRecognitionSettings settings, int regionScale) {
+        if (settings.getSearchRegion() == null) {
+            return null;
+        }
+        Rect region = settings.getSearchRegion().scaled(regionScale).toRect(scene.getWidth(), scene.getHeight());
+        if (region == null) {
+            logger.warn("Search region " + settings.getSearchRegion() + " is outside the scene, searching the whole scene.");
+        }
+        return region;
+    }
+
+    /**
+     * Scales of the pyramid levels of a scene from its native resolution, finest first. With
+     * one level only the working resolution is used. With more, the working resolution is
+     * preceded by levels each twice as fine, down to the native resolution, and followed by up
+     * to pyramidLevels - 1 levels each half as fine, as long as they keep MIN_PYRAMID_LEVEL_SIDE
+     * pixels on the short side.
+     */
+    private static double[] pyramidFactors(Scene scene, int pyramidLevels) {
+        double working = scene.getResizeFactor();
+        if (pyramidLevels <= 1) {
+            return new double[] {working};
+        }
+        List<Double> factors = new ArrayList<>();
+        if (working > 1) {
+            factors.add(1.0);
+            List<Double> finer = new ArrayList<>();
+            for (double factor = working / 2; factor > 1; factor /= 2) {
+                finer.add(0, factor);
+            }
+            factors.addAll(finer);
+        }
+        factors.add(working);
+        double shortSide = Math.min(scene.getWidth(), scene.getHeight());
+        double factor = working;
+        for (int level = 1; level < pyramidLevels && shortSide / (factor * 2) >= MIN_PYRAMID_LEVEL_SIDE; level++) {
+            factor *= 2;
+            factors.add(factor);
+        }
+        double[] result = new double[factors.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = factors.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * State of one search in one scene. The scene features are extracted on first use so that
+     * searches answered by template matching never pay for them. Closing the search frees what
+     * it computed, the scene itself stays with its owner.
+     */
+    private final class SceneSearch implements AutoCloseable {
+        private final Scene scene;
+        private final ImageRecognitionSettings settings;
+        // The search region as a scene of its own, or the whole scene when no region is set
+        private final Scene searchScene;
+        private final int regionX;
+        private final int regionY;
+        private ImageFeatures sceneFeatures;
+        // Scale of each pyramid level from the native resolution, finest first
+        private final double[] pyramidFactors;
+        private final int workingLevel;
+        private Mat[] pyramid;
+        private ImageFeatures[] pyramidFeatures;
+
+        private SceneSearch(Scene scene, ImageRecognitionSettings settings, Rect region) {
+            this.scene = scene;
+            this.settings = settings;
+            if (region != null) {
+                logger.info("Searching in region " + region);
+                this.searchScene = createScene(null, scene.getImage().submat(region));
+                this.regionX = region.x;
+                this.regionY = region.y;
+            } else {
+                this.searchScene = scene;
+                this.regionX = 0;
+                this.regionY = 0;
+            }
+            this.pyramidFactors = pyramidFactors(searchScene, settings.getPyramidLevels());
+            int working = 0;
+            while (pyramidFactors[working] != searchScene.getResizeFactor()) {
+                working++;
+            }
+            this.workingLevel = working;
+        }
+
+        /**
+         * The part of the scene searched, in scene pixels.
+         */
+        private Rect getRegion() {
+            return new Rect(regionX, regionY, searchScene.getWidth(), searchScene.getHeight());
+        }
+
+        private synchronized ImageFeatures getSceneFeatures() {
+            if (sceneFeatures == null) {
+                long start = System.nanoTime();
+                sceneFeatures = matcher.extractFeatures(searchScene.getResizedGrayImage());
+                metrics.recordTime(RecognitionStage.EXTRACTION, null, System.nanoTime() - start);
+            }
+            return sceneFeatures;
+        }
+
+        /**
+         * Index of the coarsest pyramid level, 0 when the pyramid search is not used. Level 0
+         * is the native resolution and the working resolution of the single level search is
+         * at workingLevel.
+         */
+        private int getPyramidTop() {
+            return pyramidFactors.length - 1;
+        }
+
+        private synchronized Mat getPyramidLevel(int level) {
+            if (pyramid == null) {
+                pyramid = new Mat[pyramidFactors.length];
+            }
+            if (pyramid[level] == null) {
+                if (level == workingLevel) {
+                    pyramid[level] = searchScene.getResizedGrayImage();
+                } else if (level == 0) {
+                    pyramid[level] = AkazeMatcher.toGray(searchScene.getImage());
+                } else {
+                    // Coarser levels are resized from the working resolution, finer ones from the native one
+                    Mat source = getPyramidLevel(level > workingLevel ? workingLevel : 0);
+                    double factor = getPyramidFactor(level);
+                    int width = (int) (searchScene.getWidth() / factor);
+                    int height = (int) (searchScene.getHeight() / factor);
+                    Mat resized = matPool.acquire(height, width, source.type());
+                    resize(source, resized, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+                    pyramid[level] = resized;
+                }
+            }
+            return pyramid[level];
+        }
+
+        private synchronized ImageFeatures getPyramidFeatures(int level) {
+            if (level == workingLevel) {
+                return getSceneFeatures();
+            }
+            if (pyramidFeatures == null) {
+                pyramidFeatures = new ImageFeatures[pyramidFactors.length];
+            }
+            if (pyramidFeatures[level] == null) {
+                Mat image = getPyramidLevel(level);
+                long start = System.nanoTime();
+                pyramidFeatures[level] = matcher.extractFeatures(image);
+                metrics.recordTime(RecognitionStage.EXTRACTION, null, System.nanoTime() - start);
+            }
+            return pyramidFeatures[level];
+        }
+
+        private double getPyramidFactor(int level) {
+            return pyramidFactors[level];
+        }
+
+        /**
+         * Factor the query image is scaled down by for matching at a level coarser than the
+         * working resolution, so that it is as far apart in scale from the scene as there.
+         */
+        private double getQueryScale(int level) {
+            return Math.max(1, pyramidFactors[level] / pyramidFactors[workingLevel]);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (sceneFeatures != null) {
+                sceneFeatures.release();
+                sceneFeatures = null;
+            }
+            if (pyramidFeatures != null) {
+                for (ImageFeatures features : pyramidFeatures) {
+                    if (features != null) {
+                        features.release();
+                    }
+                }
+                pyramidFeatures = null;
+            }
+            if (pyramid != null) {
+                // The working level belongs to the scene and level 0 too when it is already gray
+                for (int level = 0; level < pyramid.length; level++) {
+                    if (level != workingLevel && pyramid[level] != null && pyramid[level] != searchScene.getImage()) {
+                        matPool.recycle(pyramid[level]);
+                    }
+                }
+                pyramid = null;
+            }
+            if (searchScene != scene) {
+                searchScene.release();
+            }
+        }
+    }
 }
@@ -0,0 +1,161 @@
+package imagerecognition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Matcher worker for a MatcherWorkerPool that matches with the akaze_match binary. The worker
+ * itself stays up, but it still forks akaze_match once per request: the images of the request
+ * are written as PGM files to a temporary directory and the keypoint pairs are read back from
+ * the JSON file akaze_match writes. A request therefore costs as much as running akaze_match
+ * directly, and this wrapper exists only so that akaze_match can be used through the worker
+ * protocol. A worker that saves the process start, the file round trip and the loading of the
+ * detector per request has to read requests in a loop itself. Started by the pool with the
+ * akaze_match command as arguments:
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; imagerecognition.AkazeMatchWorker lib/linux/akaze/akaze_match
+ * </pre>
+ */
+public final class AkazeMatchWorker {
+
+    // Same value that was passed to akaze_match before matching moved in-process
+    private static final String DETECTOR_THRESHOLD = "0.00000000001";
+    private static final Pattern PAIR = Pattern.compile("\\{[^{}]*\\}");
+    private static final Pattern COORDINATE = Pattern.compile("\"(x1|y1|x2|y2)\"\\s*:\\s*\"?(-?[0-9.eE+-]+)\"?");
+
+    private final List<String> command;
+    private final File workDirectory;
+
+    AkazeMatchWorker(List<String> command, File workDirectory) {
+        this.command = command;
+        this.workDirectory = workDirectory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: AkazeMatchWorker <akaze_match executable> [arguments]");
+            System.exit(2);
+        }
+        // Stdout carries the responses, anything else printed goes to stderr where the pool logs it
+        PrintStream responses = System.out;
+        System.setOut(System.err);
+        File workDirectory = Files.createTempDirectory("akaze_worker_").toFile();
+        try {
+            new AkazeMatchWorker(Arrays.asList(args), workDirectory).serve(
+                    new DataInputStream(new BufferedInputStream(System.in)),
+                    new DataOutputStream(new BufferedOutputStream(responses)));
+        } finally {
+            FileUtils.deleteQuietly(workDirectory);
+        }
+    }
+
+    /**
+     * Answers requests until the pool closes stdin.
+     */
+    void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            byte[] request;
+            try {
+                request = MatcherProtocol.read(in);
+            } catch (EOFException e) {
+                return;
+            }
+            MatcherProtocol.write(out, answer(request));
+        }
+    }
+
+    byte[] answer(byte[] request) {
+        if (request[0] == MatcherProtocol.PING) {
+            return MatcherProtocol.encodePairs(new KeypointPairs(0));
+        }
+        try {
+            return MatcherProtocol.encodePairs(match(MatcherProtocol.decodeMatch(request)));
+        } catch (IOException e) {
+            return MatcherProtocol.encodeError(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return MatcherProtocol.encodeError("Interrupted while running akaze_match");
+        }
+    }
+
+    private KeypointPairs match(MatcherProtocol.GrayImage[] images) throws IOException, InterruptedException {
+        File queryFile = new File(workDirectory, "query.pgm");
+        File sceneFile = new File(workDirectory, "scene.pgm");
+        File jsonFile = new File(workDirectory, "keypoints.json");
+        File logFile = new File(workDirectory, "akaze_match.log");
+        try {
+            writePgm(images[0], queryFile);
+            writePgm(images[1], sceneFile);
+            List<String> matchCommand = new ArrayList<>(command);
+            matchCommand.addAll(Arrays.asList(queryFile.getAbsolutePath(), sceneFile.getAbsolutePath(),
+                    "--json", jsonFile.getAbsolutePath(), "--dthreshold", DETECTOR_THRESHOLD));
+            Process process = new ProcessBuilder(matchCommand)
+                    .redirectErrorStream(true)
+                    .redirectOutput(logFile)
+                    .start();
+            int exitVal = process.waitFor();
+            if (exitVal != 0 || !jsonFile.isFile()) {
+                String output = logFile.isFile() ? new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8).trim() : "";
+                throw new IOException("akaze_match exited with value " + exitVal + ": " + output);
+            }
+            return parsePairs(new String(Files.readAllBytes(jsonFile.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            queryFile.delete();
+            sceneFile.delete();
+            jsonFile.delete();
+            logFile.delete();
+        }
+    }
+
+    private static void writePgm(MatcherProtocol.GrayImage image, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(("P5\n" + image.width + " " + image.height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(image.pixels);
+        }
+    }
+
+    /**
+     * Reads the keypoint-pairs array of akaze_match output, whose coordinates may be written as
+     * numbers or as strings.
+     */
+    static KeypointPairs parsePairs(String json) throws IOException {
+        int start = json.indexOf("\"keypoint-pairs\"");
+        if (start < 0) {
+            throw new IOException("akaze_match output has no keypoint pairs");
+        }
+        KeypointPairs pairs = new KeypointPairs(0);
+        Matcher pair = PAIR.matcher(json);
+        pair.region(start, json.length());
+        while (pair.find()) {
+            Map<String, Float> values = new HashMap<>();
+            Matcher coordinate = COORDINATE.matcher(pair.group());
+            while (coordinate.find()) {
+                values.put(coordinate.group(1), Float.parseFloat(coordinate.group(2)));
+            }
+            if (values.size() == 4) {
+                pairs.add(values.get("x1"), values.get("y1"), values.get("x2"), values.get("y2"));
+            }
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,156 @@
+package imagerecognition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.AKAZE;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.ImageRecognitionSettings;
+
+/**
+ * Runs AKAZE matching inside the JVM with the bundled OpenCV. With the default settings it
+ * produces the same keypoint pairs as the akaze_match binary did: brute force hamming
+ * matching, nearest neighbour distance ratio test and RANSAC homography inliers. The ratio,
+ * an optional cross-check and the homography estimation are taken from the settings.
+ */
+public class AkazeMatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(AkazeMatcher.class);
+
+    // Same value that was passed to akaze_match with --dthreshold
+    private static final double DETECTOR_THRESHOLD = 0.00000000001;
+    private static final ImageRecognitionSettings DEFAULT_SETTINGS = new ImageRecognitionSettings();
+
+    private final AKAZE detector;
+    private final DescriptorMatcher matcher;
+
+    public AkazeMatcher() {
+        this.detector = AKAZE.create();
+        this.detector.setThreshold(DETECTOR_THRESHOLD);
+        this.matcher = DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING);
+    }
+
+    public ImageFeatures extractFeatures(Mat image) {
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        Mat descriptors = new Mat();
+        try (MatArena arena = new MatArena()) {
+            Mat gray = toGray(image);
+            if (gray != image) {
+                arena.track(gray);
+            }
+            detector.detectAndCompute(gray, arena.newMat(), keypoints, descriptors);
+        }
+        return new ImageFeatures(keypoints, descriptors, image.cols(), image.rows());
+    }
+
+    public KeypointPairs match(Mat objectImage, Mat sceneImage) {
+        ImageFeatures object = extractFeatures(objectImage);
+        ImageFeatures scene = extractFeatures(sceneImage);
+        try {
+            return match(object, scene);
+        } finally {
+            object.release();
+            scene.release();
+        }
+    }
+
+    public KeypointPairs match(ImageFeatures object, ImageFeatures scene) {
+        return match(object, scene, DEFAULT_SETTINGS);
+    }
+
+    /**
+     * @param settings Ratio test, cross-check and homography estimation to filter the matches with
+     * @return The homography inliers of the matches that passed the filters
+     */
+    public KeypointPairs match(ImageFeatures object, ImageFeatures scene, ImageRecognitionSettings settings) {
+        if (object.size() < 2 || scene.size() < 2) {
+            logger.info("Not enough keypoints to match: " + object.size() + " in query image, " + scene.size() + " in scene.");
+            return new KeypointPairs(0);
+        }
+        List<MatOfDMatch> knnMatches = new ArrayList<>();
+        try (MatArena arena = new MatArena()) {
+            matcher.knnMatch(object.getDescriptors(), scene.getDescriptors(), knnMatches, 2);
+            arena.trackAll(knnMatches);
+            int[] reverseMatches = settings.isCrossCheckMatches() ? bestMatches(scene.getDescriptors(), object.getDescriptors()) : null;
+            return inliers(ratioMatches(object, scene, knnMatches, (float) settings.getMatchDistanceRatio(), reverseMatches), settings);
+        }
+    }
+
+    /**
+     * Index of the best train descriptor for each query descriptor.
+     */
+    private int[] bestMatches(Mat queryDescriptors, Mat trainDescriptors) {
+        int[] best = new int[queryDescriptors.rows()];
+        Arrays.fill(best, -1);
+        try (MatArena arena = new MatArena()) {
+            MatOfDMatch matches = arena.track(new MatOfDMatch());
+            matcher.match(queryDescriptors, trainDescriptors, matches);
+            float[] rows = new float[(int) matches.total() * 4];
+            if (rows.length > 0) {
+                matches.get(0, 0, rows);
+            }
+            for (int i = 0; i < rows.length; i += 4) {
+                best[(int) rows[i]] = (int) rows[i + 1];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param reverseMatches Best query keypoint of each scene keypoint to cross-check with, or null
+     */
+    private static KeypointPairs ratioMatches(ImageFeatures object, ImageFeatures scene, List<MatOfDMatch> knnMatches, float ratio, int[] reverseMatches) {
+        KeypointPairs ratioMatches = new KeypointPairs(knnMatches.size());
+        float[] nearest = new float[8];
+        for (MatOfDMatch knnMatch : knnMatches) {
+            if (knnMatch.total() < 2) {
+                continue;
+            }
+            // DMatch rows are stored as queryIdx, trainIdx, imgIdx, distance
+            knnMatch.get(0, 0, nearest);
+            if (nearest[3] < ratio * nearest[7]) {
+                int objectIndex = (int) nearest[0];
+                int sceneIndex = (int) nearest[1];
+                if (reverseMatches == null || reverseMatches[sceneIndex] == objectIndex) {
+                    ratioMatches.add(object.getX(objectIndex), object.getY(objectIndex), scene.getX(sceneIndex), scene.getY(sceneIndex));
+                }
+            }
+        }
+        return ratioMatches;
+    }
+
+    private static KeypointPairs inliers(KeypointPairs matches, ImageRecognitionSettings settings) {
+        if (matches.size() < 4) {
+            return matches;
+        }
+        HomographyEstimator.Estimate estimate = HomographyEstimator.estimate(matches, settings);
+        if (estimate.getHomography().empty()) {
+            return new KeypointPairs(0);
+        }
+        estimate.getHomography().release();
+        KeypointPairs inliers = estimate.inliers(matches);
+        logger.info("Akaze matching: " + matches.size() + " matches, " + inliers.size() + " inliers.");
+        return inliers;
+    }
+
+    static Mat toGray(Mat image) {
+        if (image.channels() == 1) {
+            return image;
+        }
+        Mat gray = new Mat();
+        if (image.channels() == 4) {
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGRA2GRAY);
+        } else {
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+        return gray;
+    }
+}
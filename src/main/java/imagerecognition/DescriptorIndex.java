@@ -0,0 +1,380 @@
+package imagerecognition;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precomputed AKAZE keypoints and descriptors for a directory of query images, stored in a
+ * single binary file that is memory-mapped when opened.
+ *
+ * Entries are looked up by the SHA-1 of the image file content, so an image that has been
+ * changed simply misses the index, and rebuilding only extracts features for images whose
+ * content hash is not in the previous index.
+ *
+ * File layout (big-endian): magic, version, entry count, then per entry the image name,
+ * content hash, image width and height, keypoint count followed by the raw keypoint floats,
+ * and descriptor rows, cols, type followed by the raw descriptor bytes.
+ */
+public class DescriptorIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DescriptorIndex.class);
+
+    private static final int MAGIC = 0x414b5a49; // "AKZI"
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 20;
+    private static final int KEYPOINT_CHANNELS = 7;
+    private static final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp"};
+
+    private final File indexFile;
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> entryOffsets;
+
+    private DescriptorIndex(File indexFile, ByteBuffer buffer, Map<String, Integer> entryOffsets) {
+        this.indexFile = indexFile;
+        this.buffer = buffer;
+        this.entryOffsets = entryOffsets;
+    }
+
+    /**
+     * Memory-maps an index file built with {@link #build(File, File)}.
+     *
+     * @param indexFile The index file
+     * @return The opened index
+     * @throws IOException If the file cannot be read, is not a descriptor index or is truncated
+     */
+    public static DescriptorIndex open(File indexFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r"); FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return parse(indexFile, buffer);
+    }
+
+    /**
+     * Reads the entry offsets of an index. Every entry is bounds-checked here, so that reading
+     * features later cannot run past the end of the buffer.
+     */
+    private static DescriptorIndex parse(File indexFile, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a descriptor index file: " + indexFile);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported descriptor index version " + version + " in " + indexFile);
+        }
+        int count = buffer.getInt();
+        Map<String, Integer> offsets = new HashMap<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                int offset = buffer.position();
+                readName(buffer);
+                String hash = readHash(buffer);
+                skipFeatures(buffer);
+                offsets.put(hash, offset);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Descriptor index is truncated or corrupt: " + indexFile, e);
+        }
+        logger.info("Opened descriptor index " + indexFile + " with " + count + " entries.");
+        return new DescriptorIndex(indexFile, buffer, offsets);
+    }
+
+    /**
+     * Extracts features for every image in a directory and writes them into an index file.
+     * Entries of an existing index file are reused for images whose content has not changed.
+     * The existing file is read into memory instead of being mapped, so that it can be replaced
+     * afterwards. An index opened on the same file elsewhere in the JVM keeps it mapped, which
+     * prevents replacing it on Windows.
+     *
+     * @param queryImageDirectory Directory that is walked recursively for query images
+     * @param indexFile The index file to create or update
+     * @return Number of images whose features had to be extracted
+     * @throws IOException If reading the images or writing the index fails
+     */
+    public static int build(File queryImageDirectory, File indexFile) throws IOException {
+        DescriptorIndex previous = null;
+        if (indexFile.isFile()) {
+            try {
+                previous = parse(indexFile, ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath())));
+            } catch (IOException e) {
+                logger.warn("Previous descriptor index is ignored, all features will be extracted: " + e.getMessage());
+            }
+        }
+        List<File> images = new ArrayList<>();
+        collectImages(queryImageDirectory, images);
+        Collections.sort(images);
+
+        AkazeMatcher matcher = new AkazeMatcher();
+        int extracted = 0;
+        File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(images.size());
+            for (File image : images) {
+                byte[] content = Files.readAllBytes(image.toPath());
+                String hash = contentHash(content);
+                String name = queryImageDirectory.toPath().relativize(image.toPath()).toString();
+                if (previous != null && previous.copyEntry(hash, name, out)) {
+                    continue;
+                }
+                Mat decoded = decode(content);
+                try {
+                    if (decoded.empty()) {
+                        throw new IOException("Query image could not be decoded: " + image);
+                    }
+                    ImageFeatures features = matcher.extractFeatures(decoded);
+                    try {
+                        writeEntry(out, name, hash, decoded.cols(), decoded.rows(), features);
+                    } finally {
+                        features.release();
+                    }
+                } finally {
+                    decoded.release();
+                }
+                extracted++;
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Wrote descriptor index " + indexFile + ": " + images.size() + " images, " + extracted + " extracted.");
+        return extracted;
+    }
+
+    /**
+     * Reads the features stored for an image content.
+     *
+     * @param content Raw bytes of the image file
+     * @return The stored features or null if the index has no entry for this content
+     */
+    public ImageFeatures getFeatures(byte[] content) {
+        Integer offset = entryOffsets.get(contentHash(content));
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset);
+        readName(entry);
+        readHash(entry);
+        return readFeatures(entry);
+    }
+
+    public int size() {
+        return entryOffsets.size();
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    private boolean copyEntry(String hash, String name, DataOutputStream out) throws IOException {
+        Integer offset = entryOffsets.get(hash);
+        if (offset == null) {
+            return false;
+        }
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset);
+        readName(entry);
+        readHash(entry);
+        int start = entry.position();
+        skipFeatures(entry);
+        byte[] features = new byte[entry.position() - start];
+        entry.position(start);
+        entry.get(features);
+
+        writeName(out, name);
+        out.write(hexToBytes(hash));
+        out.write(features);
+        return true;
+    }
+
+    private static void writeEntry(DataOutputStream out, String name, String hash, int width, int height, ImageFeatures features) throws IOException {
+        writeName(out, name);
+        out.write(hexToBytes(hash));
+        out.writeInt(width);
+        out.writeInt(height);
+
+        MatOfKeyPoint keypoints = features.getKeypoints();
+        int keypointCount = (int) keypoints.total();
+        float[] keypointData = new float[keypointCount * KEYPOINT_CHANNELS];
+        if (keypointCount > 0) {
+            keypoints.get(0, 0, keypointData);
+        }
+        out.writeInt(keypointCount);
+        for (float value : keypointData) {
+            out.writeFloat(value);
+        }
+
+        Mat descriptors = features.getDescriptors();
+        byte[] descriptorData = new byte[(int) (descriptors.total() * descriptors.elemSize())];
+        if (descriptorData.length > 0) {
+            descriptors.get(0, 0, descriptorData);
+        }
+        out.writeInt(descriptors.rows());
+        out.writeInt(descriptors.cols());
+        out.writeInt(descriptors.type());
+        out.write(descriptorData);
+    }
+
+    private static ImageFeatures readFeatures(ByteBuffer entry) {
+        int width = entry.getInt();
+        int height = entry.getInt();
+
+        int keypointCount = entry.getInt();
+        float[] keypointData = new float[keypointCount * KEYPOINT_CHANNELS];
+        entry.asFloatBuffer().get(keypointData);
+        entry.position(entry.position() + keypointData.length * Float.BYTES);
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        if (keypointCount > 0) {
+            keypoints.alloc(keypointCount);
+            keypoints.put(0, 0, keypointData);
+        }
+
+        int rows = entry.getInt();
+        int cols = entry.getInt();
+        int type = entry.getInt();
+        Mat descriptors = new Mat();
+        if (rows > 0) {
+            descriptors.create(rows, cols, type);
+            byte[] descriptorData = new byte[(int) (descriptors.total() * descriptors.elemSize())];
+            entry.get(descriptorData);
+            descriptors.put(0, 0, descriptorData);
+        }
+        return new ImageFeatures(keypoints, descriptors, width, height);
+    }
+
+    private static void skipFeatures(ByteBuffer entry) {
+        skip(entry, 2 * Integer.BYTES);
+        int keypointCount = entry.getInt();
+        skip(entry, (long) keypointCount * KEYPOINT_CHANNELS * Float.BYTES);
+        int rows = entry.getInt();
+        int cols = entry.getInt();
+        int type = entry.getInt();
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Invalid descriptor size " + rows + "x" + cols);
+        }
+        skip(entry, (long) rows * cols * CvType.ELEM_SIZE(type));
+    }
+
+    private static void skip(ByteBuffer entry, long bytes) {
+        if (bytes < 0 || bytes > entry.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        entry.position(entry.position() + (int) bytes);
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readName(ByteBuffer entry) {
+        byte[] bytes = new byte[entry.getShort() & 0xffff];
+        entry.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readHash(ByteBuffer entry) {
+        byte[] bytes = new byte[HASH_LENGTH];
+        entry.get(bytes);
+        return bytesToHex(bytes);
+    }
+
+    private static void collectImages(File directory, List<File> images) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectImages(file, images);
+            } else if (isImage(file)) {
+                images.add(file);
+            }
+        }
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName().toLowerCase();
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Mat decode(byte[] content) {
+        MatOfByte encoded = new MatOfByte(content);
+        try {
+            return Imgcodecs.imdecode(encoded, Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    static String contentHash(byte[] content) {
+        try {
+            return bytesToHex(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Builds or updates a descriptor index from the command line.
+     *
+     * Usage: DescriptorIndex &lt;query image directory&gt; &lt;index file&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java -cp <classpath> imagerecognition.DescriptorIndex <query image directory> <index file>");
+            System.exit(1);
+        }
+        AkazeImageFinder.setupOpenCVEnv();
+        int extracted = build(new File(args[0]), new File(args[1]));
+        System.out.println("Descriptor index written to " + args[1] + ", features extracted for " + extracted + " images.");
+    }
+}
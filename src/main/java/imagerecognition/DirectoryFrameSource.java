@@ -0,0 +1,53 @@
+package imagerecognition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Plays back frames from a directory of images in file name order, standing in for a device.
+ * Once every frame has been returned the last one is repeated, like a screen that no longer
+ * changes.
+ */
+public class DirectoryFrameSource implements FrameSource {
+
+    private final List<File> frames;
+    private int next;
+
+    public DirectoryFrameSource(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+        this.frames = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                frames.add(file);
+            }
+        }
+        if (frames.isEmpty()) {
+            throw new IOException("No frames in directory: " + directory);
+        }
+    }
+
+    @Override
+    public synchronized Mat captureFrame() throws IOException {
+        File frameFile = frames.get(Math.min(next, frames.size() - 1));
+        next++;
+        Mat frame = Imgcodecs.imread(frameFile.getAbsolutePath(), Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+        if (frame.empty()) {
+            throw new IOException("Frame could not be decoded: " + frameFile);
+        }
+        return frame;
+    }
+
+    public synchronized void rewind() {
+        next = 0;
+    }
+}
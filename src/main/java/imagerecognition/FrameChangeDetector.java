@@ -0,0 +1,80 @@
+package imagerecognition;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.Scene;
+
+/**
+ * Tells whether a polled frame shows the same screen as the last frame that was searched, by
+ * comparing small grayscale thumbnails of the two frames. Polling loops use it to reuse the
+ * previous result instead of searching an identical frame again, and to poll faster after a
+ * screen change. The reference only moves when a frame is searched, so a screen that drifts
+ * a little on every frame is searched again once it has drifted past the tolerance.
+ */
+public class FrameChangeDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameChangeDetector.class);
+
+    private static final int THUMBNAIL_SIZE = 64;
+
+    public FrameChangeDetector(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Compares the scene with the scene last given to {@link #markSearched(Scene)}.
+     *
+     * @return true when no thumbnail pixel differs by more than the tolerance, in gray levels
+     */
+    public boolean isUnchanged(Scene scene) {
+        Mat thumbnail = thumbnail(scene);
+        boolean unchanged = false;
+        if (searched != null && searchedWidth == scene.getWidth() && searchedHeight == scene.getHeight()) {
+            Mat difference = new Mat();
+            Core.absdiff(thumbnail, searched, difference);
+            double maxDifference = Core.minMaxLoc(difference).maxVal;
+            difference.release();
+            unchanged = maxDifference <= tolerance;
+        }
+        thumbnail.release();
+        if (unchanged) {
+            skippedFrames++;
+            logger.info("Screen has not changed since the last searched frame.");
+        }
+        return unchanged;
+    }
+
+    /**
+     * Makes the scene the reference of later comparisons. To be called for every frame that is
+     * searched.
+     */
+    public void markSearched(Scene scene) {
+        if (searched != null) {
+            searched.release();
+        }
+        searched = thumbnail(scene);
+        searchedWidth = scene.getWidth();
+        searchedHeight = scene.getHeight();
+    }
+
+    public int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    private static Mat thumbnail(Scene scene) {
+        Mat thumbnail = new Mat();
+        Imgproc.resize(scene.getResizedGrayImage(), thumbnail, new Size(THUMBNAIL_SIZE, THUMBNAIL_SIZE), 0, 0, Imgproc.INTER_AREA);
+        return thumbnail;
+    }
+
+    private final double tolerance;
+    private Mat searched;
+    private int searchedWidth;
+    private int searchedHeight;
+    private int skippedFrames;
+}
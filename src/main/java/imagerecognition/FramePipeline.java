@@ -0,0 +1,123 @@
+package imagerecognition;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.ImageRecognitionSettings;
+import objects.Scene;
+
+/**
+ * Polls the screen with capturing and matching overlapped: the next frame is captured while the
+ * previous one is being matched. At most maxInFlightFrames captured frames wait for matching,
+ * and capturing and matching stop as soon as a frame gives a result or the future is cancelled.
+ */
+final class FramePipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(FramePipeline.class);
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "frame-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Object END_OF_FRAMES = new Object();
+
+    interface FrameCapture {
+        Scene capture(int index) throws Exception;
+    }
+
+    interface FrameMatcher<T> {
+        /**
+         * Takes over the scene, which it releases unless it is part of the result.
+         *
+         * @return The result of the search, or null to continue with the next frame
+         */
+        T match(Scene scene) throws Exception;
+    }
+
+    private FramePipeline() {
+    }
+
+    /**
+     * Starts polling on background threads.
+     *
+     * @param noResult Value to complete with when polling ends without a result
+     */
+    static <T> CompletableFuture<T> start(ImageRecognitionSettings settings, FrameCapture capture, FrameMatcher<T> matcher, T noResult) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        BlockingQueue<Object> frames = new ArrayBlockingQueue<>(Math.max(1, settings.getMaxInFlightFrames()));
+
+        Future<?> capturing = executor.submit(() -> {
+            FrameChangeDetector frameChangeDetector = new FrameChangeDetector(settings.getUnchangedFrameTolerance());
+            PollingScheduler scheduler = new PollingScheduler(settings);
+            try {
+                while (!result.isDone() && scheduler.nextPoll()) {
+                    Scene scene = capture.capture(scheduler.getPolls() - 1);
+                    boolean unchanged = frameChangeDetector.isUnchanged(scene);
+                    // An identical frame gives the same result as the last frame sent to matching
+                    if (!(unchanged && settings.isSkipUnchangedFrames())) {
+                        frameChangeDetector.markSearched(scene);
+                        try {
+                            frames.put(scene);
+                        } catch (InterruptedException e) {
+                            // Cancelled while waiting for room, the scene never reached the queue
+                            scene.release();
+                            throw e;
+                        }
+                    } else {
+                        scene.release();
+                    }
+                    scheduler.waitForNextPoll(!unchanged);
+                }
+                frames.put(END_OF_FRAMES);
+            } catch (InterruptedException e) {
+                // Cancelled because a result was found or the caller cancelled the search
+            } catch (Exception e) {
+                logger.error("Capturing the screen failed", e);
+                result.completeExceptionally(e);
+            }
+        });
+
+        Future<?> matching = executor.submit(() -> {
+            try {
+                while (!result.isDone()) {
+                    Object frame = frames.take();
+                    if (frame == END_OF_FRAMES) {
+                        result.complete(noResult);
+                        return;
+                    }
+                    T value = matcher.match((Scene) frame);
+                    if (value != null && !result.complete(value) && value instanceof AutoCloseable) {
+                        // Cancelled while matching, so the result is never handed out to be closed
+                        ((AutoCloseable) value).close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Cancelled because capturing failed or the caller cancelled the search
+            } catch (Exception e) {
+                logger.error("Matching a frame failed", e);
+                result.completeExceptionally(e);
+            }
+        });
+
+        result.whenComplete((value, error) -> {
+            capturing.cancel(true);
+            matching.cancel(true);
+            // Frames captured but never matched
+            for (Object frame; (frame = frames.poll()) != null; ) {
+                if (frame != END_OF_FRAMES) {
+                    ((Scene) frame).release();
+                }
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package imagerecognition;
+
+import org.opencv.core.Mat;
+
+/**
+ * Source of screen frames. Implementations return the decoded frame directly so that no
+ * screenshot file is needed for recognition.
+ */
+public interface FrameSource {
+
+    /**
+     * Captures the current screen.
+     *
+     * @return The captured frame in BGR or BGRA channel order
+     * @throws Exception If the frame could not be captured
+     */
+    Mat captureFrame() throws Exception;
+}
@@ -0,0 +1,120 @@
+package imagerecognition;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MetricsListener that keeps a latency histogram per stage and a count per event, both for the
+ * whole run and per query image, to see for example the p50 and p99 matching time of every
+ * query image across a test run.
+ */
+public class HistogramMetrics implements MetricsListener {
+
+    private final Map<RecognitionStage, LatencyHistogram> stages = new EnumMap<>(RecognitionStage.class);
+    private final Map<RecognitionCounter, long[]> counters = new EnumMap<>(RecognitionCounter.class);
+    private final Map<String, Map<RecognitionStage, LatencyHistogram>> queryStages = new HashMap<>();
+    private final Map<String, Map<RecognitionCounter, long[]>> queryCounters = new HashMap<>();
+
+    @Override
+    public void recordTime(RecognitionStage stage, String queryImage, long nanos) {
+        LatencyHistogram total;
+        LatencyHistogram query = null;
+        synchronized (this) {
+            total = stages.computeIfAbsent(stage, s -> new LatencyHistogram());
+            if (queryImage != null) {
+                query = queryStages.computeIfAbsent(queryImage, q -> new EnumMap<>(RecognitionStage.class))
+                        .computeIfAbsent(stage, s -> new LatencyHistogram());
+            }
+        }
+        total.record(nanos);
+        if (query != null) {
+            query.record(nanos);
+        }
+    }
+
+    @Override
+    public synchronized void increment(RecognitionCounter counter, String queryImage) {
+        counters.computeIfAbsent(counter, c -> new long[1])[0]++;
+        if (queryImage != null) {
+            queryCounters.computeIfAbsent(queryImage, q -> new EnumMap<>(RecognitionCounter.class))
+                    .computeIfAbsent(counter, c -> new long[1])[0]++;
+        }
+    }
+
+    /**
+     * Timings of a stage across all query images.
+     */
+    public LatencyHistogram.Snapshot getSnapshot(RecognitionStage stage) {
+        LatencyHistogram histogram;
+        synchronized (this) {
+            histogram = stages.get(stage);
+        }
+        return snapshot(histogram);
+    }
+
+    /**
+     * Timings of a stage for one query image.
+     *
+     * @param queryImage Path to the query image
+     */
+    public LatencyHistogram.Snapshot getSnapshot(RecognitionStage stage, String queryImage) {
+        LatencyHistogram histogram = null;
+        synchronized (this) {
+            Map<RecognitionStage, LatencyHistogram> histograms = queryStages.get(QueryImageCache.key(queryImage));
+            if (histograms != null) {
+                histogram = histograms.get(stage);
+            }
+        }
+        return snapshot(histogram);
+    }
+
+    public synchronized long getCount(RecognitionCounter counter) {
+        long[] count = counters.get(counter);
+        return count == null ? 0 : count[0];
+    }
+
+    public synchronized long getCount(RecognitionCounter counter, String queryImage) {
+        Map<RecognitionCounter, long[]> counts = queryCounters.get(QueryImageCache.key(queryImage));
+        long[] count = counts == null ? null : counts.get(counter);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Absolute paths of the query images that have recorded timings or counts.
+     */
+    public synchronized List<String> getQueryImages() {
+        List<String> queryImages = new ArrayList<>(queryStages.keySet());
+        for (String queryImage : queryCounters.keySet()) {
+            if (!queryStages.containsKey(queryImage)) {
+                queryImages.add(queryImage);
+            }
+        }
+        return queryImages;
+    }
+
+    public synchronized void reset() {
+        stages.clear();
+        counters.clear();
+        queryStages.clear();
+        queryCounters.clear();
+    }
+
+    private static LatencyHistogram.Snapshot snapshot(LatencyHistogram histogram) {
+        return histogram == null ? new LatencyHistogram().snapshot() : histogram.snapshot();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<RecognitionStage, LatencyHistogram> entry : stages.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue().snapshot()).append('\n');
+        }
+        for (Map.Entry<RecognitionCounter, long[]> entry : counters.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()[0]).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package imagerecognition;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfPoint2f;
+
+import objects.HomographyMethod;
+import objects.ImageRecognitionSettings;
+
+/**
+ * Estimates the homography from query image to scene coordinates with the method, reprojection
+ * threshold and iteration cap of the settings.
+ *
+ * A least squares fit of all pairs is tried first. When it already agrees with the early exit
+ * share of the pairs, as it does for pairs that are inliers of an earlier estimate, it is used
+ * as it is. Otherwise RANSAC or LMEDS is run, which also stops before the iteration cap once
+ * the inliers found so far make a better model unlikely.
+ */
+final class HomographyEstimator {
+
+    private static final double CONFIDENCE = 0.995;
+
+    private HomographyEstimator() {
+    }
+
+    /**
+     * @return The estimate, with an empty homography when none could be found. The caller
+     * releases the homography.
+     */
+    static Estimate estimate(KeypointPairs pairs, ImageRecognitionSettings settings) {
+        int count = pairs.size();
+        if (count < 4) {
+            return new Estimate(new Mat(), new byte[count], 0);
+        }
+        double threshold = settings.getReprojectionThreshold();
+        try (MatArena arena = new MatArena()) {
+            MatOfPoint2f obj = arena.track(pairs.toObjectMat());
+            MatOfPoint2f scene = arena.track(pairs.toSceneMat());
+
+            Mat fit = Calib3d.findHomography(obj, scene);
+            byte[] mask = new byte[count];
+            int inliers = fit.empty() ? 0 : countInliers(fit, pairs, threshold, mask);
+            HomographyMethod method = settings.getHomographyMethod();
+            if (method == HomographyMethod.LEAST_SQUARES || (!fit.empty() && inliers >= settings.getEarlyExitInlierRatio() * count)) {
+                return new Estimate(fit, mask, inliers);
+            }
+            fit.release();
+
+            MatOfByte inlierMask = arena.track(new MatOfByte());
+            int flag = method == HomographyMethod.LMEDS ? Calib3d.LMEDS : Calib3d.RANSAC;
+            Mat h = Calib3d.findHomography(obj, scene, flag, threshold, inlierMask, settings.getMaxHomographyIterations(), CONFIDENCE);
+            if (h.empty()) {
+                return new Estimate(h, new byte[count], 0);
+            }
+            mask = inlierMask.toArray();
+            inliers = 0;
+            for (byte inlier : mask) {
+                if (inlier != 0) {
+                    inliers++;
+                }
+            }
+            return new Estimate(h, mask, inliers);
+        }
+    }
+
+    /**
+     * Marks the pairs whose query point the homography maps to within the threshold of their
+     * scene point.
+     */
+    private static int countInliers(Mat homography, KeypointPairs pairs, double threshold, byte[] mask) {
+        double[] h = new double[9];
+        homography.get(0, 0, h);
+        float[] objectPoints = pairs.getObjectPoints();
+        float[] scenePoints = pairs.getScenePoints();
+        double maxDistanceSquared = threshold * threshold;
+        int inliers = 0;
+        for (int i = 0; i < mask.length; i++) {
+            double x = objectPoints[i * 2];
+            double y = objectPoints[i * 2 + 1];
+            double w = h[6] * x + h[7] * y + h[8];
+            double dx = (h[0] * x + h[1] * y + h[2]) / w - scenePoints[i * 2];
+            double dy = (h[3] * x + h[4] * y + h[5]) / w - scenePoints[i * 2 + 1];
+            if (dx * dx + dy * dy <= maxDistanceSquared) {
+                mask[i] = 1;
+                inliers++;
+            }
+        }
+        return inliers;
+    }
+
+    static final class Estimate {
+        private final Mat homography;
+        private final byte[] inlierMask;
+        private final int inlierCount;
+
+        private Estimate(Mat homography, byte[] inlierMask, int inlierCount) {
+            this.homography = homography;
+            this.inlierMask = inlierMask;
+            this.inlierCount = inlierCount;
+        }
+
+        Mat getHomography() {
+            return homography;
+        }
+
+        int getInlierCount() {
+            return inlierCount;
+        }
+
+        /**
+         * The pairs the homography agrees with, out of the pairs it was estimated from.
+         */
+        KeypointPairs inliers(KeypointPairs pairs) {
+            float[] objectPoints = pairs.getObjectPoints();
+            float[] scenePoints = pairs.getScenePoints();
+            KeypointPairs inliers = new KeypointPairs(inlierCount);
+            for (int i = 0; i < inlierMask.length; i++) {
+                if (inlierMask[i] != 0) {
+                    inliers.add(objectPoints[i * 2], objectPoints[i * 2 + 1], scenePoints[i * 2], scenePoints[i * 2 + 1]);
+                }
+            }
+            inliers.setMatchCount(pairs.getMatchCount());
+            return inliers;
+        }
+    }
+}
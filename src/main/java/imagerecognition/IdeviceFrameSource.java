@@ -0,0 +1,63 @@
+package imagerecognition;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Captures iOS frames with idevicescreenshot. The tool can only write to a file, so the
+ * frame goes through a temporary file that is removed right after decoding. The TIFF or PNG
+ * it writes is decoded directly, no sips conversion is needed.
+ */
+public class IdeviceFrameSource implements FrameSource {
+
+    private final String udid;
+    private final File tempDirectory;
+
+    public IdeviceFrameSource(String udid) {
+        this(udid, null);
+    }
+
+    /**
+     * @param udid UDID of the device to capture
+     * @param tempDirectory Directory for the temporary screenshot files, or null for the default
+     * temporary directory
+     */
+    public IdeviceFrameSource(String udid, File tempDirectory) {
+        this.udid = udid;
+        this.tempDirectory = tempDirectory;
+    }
+
+    @Override
+    public Mat captureFrame() throws IOException, InterruptedException {
+        File tempFile = File.createTempFile("idevicescreenshot_", ".img", tempDirectory);
+        try {
+            ProcessBuilder builder = new ProcessBuilder("idevicescreenshot", "-u", udid, tempFile.getAbsolutePath());
+            // Errors are read together with the output, so neither pipe can fill up unread
+            builder.redirectErrorStream(true);
+            Process p = builder.start();
+            String output = IOUtils.toString(p.getInputStream(), StandardCharsets.UTF_8);
+            int exitVal;
+            try {
+                exitVal = p.waitFor();
+            } catch (InterruptedException e) {
+                p.destroyForcibly();
+                throw e;
+            }
+            if (exitVal != 0) {
+                throw new IOException("idevicescreenshot process exited with value " + exitVal + ": " + output);
+            }
+            Mat frame = Imgcodecs.imread(tempFile.getAbsolutePath(), Imgcodecs.CV_LOAD_IMAGE_UNCHANGED);
+            if (frame.empty()) {
+                throw new IOException("idevicescreenshot output could not be decoded");
+            }
+            return frame;
+        } finally {
+            tempFile.delete();
+        }
+    }
+}
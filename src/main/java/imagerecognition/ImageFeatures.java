@@ -0,0 +1,80 @@
+package imagerecognition;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * AKAZE keypoints and descriptors extracted from a single image.
+ *
+ * Keypoint coordinates are also kept as an interleaved x,y float array so that matched
+ * pairs can be collected without going through KeyPoint objects.
+ */
+public class ImageFeatures {
+
+    public ImageFeatures(MatOfKeyPoint keypoints, Mat descriptors, int imageWidth, int imageHeight) {
+        this.keypoints = keypoints;
+        this.descriptors = descriptors;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.points = toPoints(keypoints);
+    }
+
+    private static float[] toPoints(MatOfKeyPoint keypoints) {
+        int count = (int) keypoints.total();
+        float[] points = new float[count * 2];
+        if (count == 0) {
+            return points;
+        }
+        // KeyPoint rows are stored as x, y, size, angle, response, octave, class_id
+        int channels = keypoints.channels();
+        float[] raw = new float[count * channels];
+        keypoints.get(0, 0, raw);
+        for (int i = 0; i < count; i++) {
+            points[i * 2] = raw[i * channels];
+            points[i * 2 + 1] = raw[i * channels + 1];
+        }
+        return points;
+    }
+
+    public MatOfKeyPoint getKeypoints() {
+        return keypoints;
+    }
+
+    public Mat getDescriptors() {
+        return descriptors;
+    }
+
+    public int size() {
+        return points.length / 2;
+    }
+
+    public float getX(int index) {
+        return points[index * 2];
+    }
+
+    public float getY(int index) {
+        return points[index * 2 + 1];
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * Frees the native memory of the keypoints and descriptors. The coordinates stay usable.
+     */
+    public void release() {
+        keypoints.release();
+        descriptors.release();
+    }
+
+    private final MatOfKeyPoint keypoints;
+    private final Mat descriptors;
+    private final float[] points;
+    private final int imageWidth;
+    private final int imageHeight;
+}
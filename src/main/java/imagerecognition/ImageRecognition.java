@@ -1,34 +1,129 @@
 package imagerecognition;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Properties;
-
-import org.apache.commons.io.FilenameUtils;
-import org.opencv.core.Point;
-import org.opencv.core.Size;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import objects.ImageLocation;
 import objects.ImageRecognitionSettings;
 import objects.ImageSearchResult;
+import objects.MatchMode;
 import objects.PlatformType;
+import objects.TextRecognitionSettings;
 
+/**
+ * Static image recognition API for a single device per platform: the only connected Android
+ * device, or the iOS device in the UDID environment variable. To drive several devices from
+ * one JVM, use a RecognitionSession per device instead.
+ */
 public class ImageRecognition {
 
     private static Logger logger = LoggerFactory.getLogger(ImageRecognition.class);
-    private static AkazeImageFinder imageFinder = new AkazeImageFinder();
-    private static void log(String message) {
-        logger.info(message);
-    }
 
+    // The native library has to be loaded before the image finder creates its AKAZE detector
     static {
         AkazeImageFinder.setupOpenCVEnv();
     }
 
+    private static AkazeImageFinder imageFinder = new AkazeImageFinder(QueryImageCache.getShared());
+    private static final TextRecognizer textRecognizer = new TextRecognizer();
+    private static final RecognitionSession androidSession = new RecognitionSession(PlatformType.ANDROID, null, new ImageRecognitionSettings(), imageFinder, false);
+    private static final RecognitionSession iosSession = new RecognitionSession(PlatformType.IOS, null, new ImageRecognitionSettings(), imageFinder, false);
+
+    static {
+        String descriptorIndexFile = System.getProperty("imagerecognition.descriptorIndex");
+        if (descriptorIndexFile != null) {
+            try {
+                loadDescriptorIndex(descriptorIndexFile);
+            } catch (IOException e) {
+                logger.warn("Descriptor index could not be opened, features will be extracted: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Cache of decoded query images and their extracted features. Can be used to change the
+     * memory budget, invalidate entries and read the hit and miss counters.
+     *
+     * @return The query image cache shared by all searches and by the sessions created without a cache of their own
+     */
+    public static QueryImageCache getQueryImageCache() {
+        return imageFinder.getQueryImageCache();
+    }
+
+    /**
+     * Attempts, matches and time spent per recognition strategy across all searches so far.
+     *
+     * @return The strategy timings shared by all searches
+     */
+    public static StrategyTimings getStrategyTimings() {
+        return imageFinder.getStrategyTimings();
+    }
+
+    /**
+     * Last known location of each reference image, with the hit rate and latency of searches
+     * near the last location compared to searches of the whole screen.
+     *
+     * @return The location memory shared by all searches
+     */
+    public static LocationMemory getLocationMemory() {
+        return imageFinder.getLocationMemory();
+    }
+
+    /**
+     * Sets the pool on which the query images of a batch search are matched in parallel.
+     * The common fork-join pool is used by default.
+     *
+     * @param matchingPool Pool to run the per query image matching on
+     */
+    public static void setMatchingPool(ForkJoinPool matchingPool) {
+        imageFinder.setMatchingPool(matchingPool);
+    }
+
+    /**
+     * Matches with persistent external worker processes instead of the bundled OpenCV, for
+     * searches made through this class.
+     *
+     * @param externalMatcher The workers to match on, or null to match in-process again
+     */
+    public static void setExternalMatcher(MatcherWorkerPool externalMatcher) {
+        imageFinder.setExternalMatcher(externalMatcher);
+    }
+
+    /**
+     * Sets the listener that receives the stage timings and event counts of every search made
+     * through this class, for example a HistogramMetrics.
+     *
+     * @param metrics The listener, or MetricsListener.NONE to stop reporting
+     */
+    public static void setMetricsListener(MetricsListener metrics) {
+        imageFinder.setMetricsListener(metrics);
+        textRecognizer.setMetricsListener(metrics);
+        androidSession.setMetricsListener(metrics);
+        iosSession.setMetricsListener(metrics);
+    }
+
+    /**
+     * Memory-maps a descriptor index built with DescriptorIndex.build so that query image
+     * features are read from it instead of being extracted. Also done at startup when the
+     * imagerecognition.descriptorIndex system property is set.
+     *
+     * @param descriptorIndexFile Path to the descriptor index file
+     * @throws IOException If the index file cannot be opened
+     */
+    public static void loadDescriptorIndex(String descriptorIndexFile) throws IOException {
+        getQueryImageCache().setDescriptorIndex(DescriptorIndex.open(new File(descriptorIndexFile)));
+    }
+
     
     /**
      * Find the location of the reference image on the screen
@@ -42,7 +137,7 @@ public class ImageRecognition {
         ImageRecognitionSettings setting = new ImageRecognitionSettings();
         return findImage(searchedImageFilePath, sceneImageFilePath, setting, platform);
     }
-    
+
     /**
      * Find the location of the reference image on the screen
      * @param searchedImageFilePath Path to the reference image file to be searched
@@ -53,66 +148,24 @@ public class ImageRecognition {
      * @throws Exception
      */
     public static ImageLocation findImage(String searchedImageFilePath, String sceneImageFilePath, ImageRecognitionSettings settings, PlatformType platform) throws Exception {
-        log("Searching for " + searchedImageFilePath);
-        log("Searching in " + sceneImageFilePath);
-        ImageLocation imgLocation = imageFinder.findImage(searchedImageFilePath, sceneImageFilePath, settings.getTolerance());
-
-        if (imgLocation != null) {
-            Size screenSize = getScreenSize(platform, sceneImageFilePath);
-            if (platform.equals(PlatformType.IOS)) {
-                imgLocation = scaleImageRectangleForIos(screenSize, imgLocation, sceneImageFilePath);
-            }
-            Point center = imgLocation.getCenter();
-            if (!isPointInsideScreenBounds(center, screenSize)) {
-                log("Screen size is (width, height): " + screenSize.width + ", " + screenSize.height);
-                log("WARNING: Coordinates found do not match the screen --> image not found.");
-                imgLocation = null;
-            }
-        }
-        return imgLocation;
+        return session(platform).findImage(searchedImageFilePath, sceneImageFilePath, settings);
     }
 
-    private static ImageLocation scaleImageRectangleForIos(Size screenSize, ImageLocation imageLocation, String sceneImageFilePath) {
-        //for retina devices we need to recalculate coordinates
-        double sceneHeight = imageFinder.getSceneHeight(sceneImageFilePath);
-        double sceneWidth = imageFinder.getSceneWidth(sceneImageFilePath);
-        int screenHeight = (int) screenSize.height;
-        int screenWidth = (int) screenSize.width;
-
-        // Make sure screenshot size values are "landscape" for comparison
-        if (sceneHeight > sceneWidth) {
-            double temp = sceneHeight;
-            sceneHeight = sceneWidth;
-            sceneWidth = temp;
-        }
-
-        // Make sure screen size values are "landscape" for comparison
-        if (screenHeight > screenWidth) {
-            int temp = screenHeight;
-            screenHeight = screenWidth;
-            screenWidth = temp;
-        }
-
-        if ((screenHeight<sceneHeight) && (screenWidth<sceneWidth)) {
-            if ((screenHeight<sceneHeight/2)&&(screenWidth<sceneWidth/2)) {
-                log("Recalculating coordinates for x3 retina displays..");
-                imageLocation.divideCoordinatesBy(3);
-                log("Device with Retina display rendered at  => coordinates have been recalculated");
-            }
-            else {
-                log("Recalculating coordinates for x2 retina displays..");
-                imageLocation.divideCoordinatesBy(2);
-                log("Device with Retina display rendered at x2 => coordinates have been recalculated");
-            }
-        }
-        return imageLocation;
-    }
-
-    private static boolean isPointInsideScreenBounds(Point center, Size screenSize) {
-        return !((center.x >= screenSize.width) || (center.x < 0) || (center.y >= screenSize.height) || (center.y < 0));
+    /**
+     * Find the locations of several reference images in one scene. The scene is decoded and its
+     * features are extracted only once for all of the reference images.
+     *
+     * @param searchedImageFilePaths Paths to the reference image files to be searched
+     * @param sceneImageFilePath Path to the scene file in which the images are going to be searched for
+     * @param settings Image recognition related settings
+     * @param platform Defines the platform (phone operating system) that is in use. PlatformType.ANDROID for Android and PlatformType.IOS for iOS
+     * @return Location of each reference image in the given order, the value is null when the image has not been found
+     * @throws Exception
+     */
+    public static Map<String, ImageLocation> findImages(List<String> searchedImageFilePaths, String sceneImageFilePath, ImageRecognitionSettings settings, PlatformType platform) throws Exception {
+        return session(platform).findImages(searchedImageFilePaths, sceneImageFilePath, settings);
     }
 
-
     /**
      * Checks whether image disappears from screen before a predefined timeout.
      * 
@@ -124,51 +177,78 @@ public class ImageRecognition {
      */
     public static boolean hasImageDissappearedFromScreenBeforeTimeout(String searchedImageFilePath,
             String screenshotBaseDirectory, PlatformType platform) throws Exception {
-        log("==> Trying to find image: " + searchedImageFilePath);
-        int retry_counter=0;
-        long start = System.nanoTime();
-        while (((System.nanoTime() - start) / 1e6 / 1000 < 300)) {
-            String screenshotName = FilenameUtils.getBaseName(searchedImageFilePath) + "_screenshot_"+retry_counter;
-            String screenShotFile = ImageRecognition.takeScreenshot(screenshotName, screenshotBaseDirectory, platform);
-            if ((findImage(searchedImageFilePath, screenShotFile, platform)) == null) {
-                log("Image has successfully disappeared from screen.");
-                return true;
-            }
-            sleep(3);	
-            retry_counter++;
-        }
-        logger.warn("Image did not disappear from screen");
-        return false;
+        return session(platform).hasImageDissappearedFromScreenBeforeTimeout(searchedImageFilePath, screenshotBaseDirectory);
+    }
+
+    /**
+     * Checks whether image disappears from screen before the timeout of the settings, or within
+     * the number of retries when no timeout is set.
+     * 
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings, including the timeout and polling policy
+     * @param platform Defines the platform (phone operating system) that is in use. PlatformType.ANDROID for Android and PlatformType.IOS for iOS
+     * @return True if the image cannot be found or disappears successfully. False if the image can be found and the function timeouts.
+     * @throws Exception
+     */
+    public static boolean hasImageDissappearedFromScreenBeforeTimeout(String searchedImageFilePath,
+            String screenshotBaseDirectory, ImageRecognitionSettings settings, PlatformType platform) throws Exception {
+        return session(platform).hasImageDissappearedFromScreenBeforeTimeout(searchedImageFilePath, screenshotBaseDirectory, settings);
     }
 
     /**
      * Extract text from an image.
      * 
      * @param imageInput Path to the image file in which a text should be found
-     * @return The found text in the image.
+     * @return The found text in the image, lines joined without separators. Empty when the text could not be read.
      */
     public static String getTextStringFromImage(String imageInput) {
-        String[] tesseractCommand = {"tesseract", imageInput, "stdout"};
-        String value = "";
+        Mat image = null;
         try {
-            ProcessBuilder p = new ProcessBuilder(tesseractCommand);
-            Process proc = p.start();
-            InputStream stdin = proc.getInputStream();
-            InputStreamReader isr = new InputStreamReader(stdin);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            while ((line = br.readLine()) != null) {
-                value += line;
+            image = Imgcodecs.imread(imageInput, Imgcodecs.CV_LOAD_IMAGE_GRAYSCALE);
+            if (image.empty()) {
+                logger.error("Image could not be read: " + imageInput);
+                return "";
             }
-
+            return textRecognizer.getText(image, new TextRecognitionSettings()).replaceAll("\\r?\\n", "");
         } catch (Throwable t) {
-            t.printStackTrace();
+            logger.error("Text could not be read from " + imageInput, t);
+            return "";
+        } finally {
+            if (image != null) {
+                image.release();
+            }
         }
-        return value;
     }
 
+    /**
+     * Extract text from an image in memory, for example a captured frame, with tesseract
+     * initialised once per language and reused between calls.
+     *
+     * @param image 8-bit image in which a text should be found
+     * @param settings Language, page segmentation mode and character whitelist of the read
+     * @return The found text without surrounding whitespace, lines separated by line breaks
+     * @throws IOException If tesseract cannot be loaded or has no trained data for the language
+     */
+    public static String getTextStringFromImage(Mat image, TextRecognitionSettings settings) throws IOException {
+        return textRecognizer.getText(image, settings);
+    }
 
+    /**
+     * Extract text from a region of an image in memory, without cropping it to a file first.
+     *
+     * @param region Part of the image in which a text should be found
+     */
+    public static String getTextStringFromImage(Mat image, Rect region, TextRecognitionSettings settings) throws IOException {
+        return textRecognizer.getText(image, region, settings);
+    }
 
+    /**
+     * @return The tesseract instances shared by the text reads of this class
+     */
+    public static TextRecognizer getTextRecognizer() {
+        return textRecognizer;
+    }
 
     /**
      * @param searchedImageFilePath Path to the reference image file to be searched
@@ -181,210 +261,121 @@ public class ImageRecognition {
      * @throws Exception
      */
     public static ImageSearchResult findImageOnScreen(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings, PlatformType platform) throws InterruptedException, IOException, Exception {
-        ImageSearchResult imageSearchResult = findImageLoop(searchedImageFilePath, screenshotBaseDirectory, settings, platform);
-        if (imageSearchResult.isFound() && settings.isCrop()) {
-            log("Cropping image..");
-            imageFinder.cropImage(imageSearchResult);
-            log("Cropping image.. Succeeded!");
-        }
-        return imageSearchResult;
+        return session(platform).findImageOnScreen(searchedImageFilePath, screenshotBaseDirectory, settings);
     }
 
-    private static ImageSearchResult findImageLoop(String searchedImagePath, String screenshotBaseDirectory, ImageRecognitionSettings settings, PlatformType platform) throws InterruptedException, IOException, Exception {
-        long start_time = System.nanoTime();
-        ImageSearchResult imageSearchResult = new ImageSearchResult();
-        String imageName = FilenameUtils.getBaseName(searchedImagePath);
-        for (int i = 0; i < settings.getRetries(); i++) {
-            String screenshotName = imageName + "_screenshot_"+i;
-            String screenshotFile = takeScreenshot(screenshotName,screenshotBaseDirectory, platform);
-            ImageLocation imageLocation = ImageRecognition.findImage(searchedImagePath, screenshotFile, settings, platform);
-            if (imageLocation!=null){
-                long end_time = System.nanoTime();
-                int difference = (int) ((end_time - start_time) / 1e6 / 1000);
-                log("==> Find image took: " + difference + " secs.");
-                imageSearchResult.setImageLocation(imageLocation);
-                imageSearchResult.setScreenshotFile(screenshotFile);
-                return imageSearchResult;
-            }
-            retryWait(settings);
-        }
-        log("==> Image not found");
-        return imageSearchResult;
-    }
-
-    private static void retryWait(ImageRecognitionSettings settings) throws InterruptedException {
-        if (settings.getRetryWaitTime() > 0) {
-            log("retryWait given, sleeping " + settings.getRetryWaitTime() + " seconds.");
-            sleep(settings.getRetryWaitTime());
-        }
-    }
-
-    private static void sleep(int seconds) throws InterruptedException {
-        Thread.sleep(seconds * 1000);
-    }
-
-    public static String takeScreenshot(String screenshotName, String screenshotBaseDirectory, PlatformType platform) throws Exception {
-        long start_time = System.nanoTime();
-
-        String screenshotFile = screenshotBaseDirectory + screenshotName + ".png";
-        String screenShotFilePath = System.getProperty("user.dir") + "/" + screenshotFile;
-
-        if (platform.equals(PlatformType.IOS)) {
-            takeIDeviceScreenshot(screenShotFilePath);
-        } else if (platform.equals(PlatformType.ANDROID)) {
-            takeAndroidScreenshot(screenShotFilePath);
-        } else{
-            throw new Exception("Invalid platformType: "+platform);
+    /**
+     * Searches for an image on the screen without blocking. The next screenshot is captured
+     * while the previous one is being matched, and polling stops as soon as the image is found.
+     * Cancelling the returned future stops capturing and matching.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings
+     * @param platform Defines the platform (phone operating system) that is in use. PlatformType.ANDROID for Android and PlatformType.IOS for iOS
+     * @return Future of the ImageSearchResult, which is not found when polling ended without finding the image, or failed for an invalid platform
+     */
+    public static CompletableFuture<ImageSearchResult> findImageOnScreenAsync(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings, PlatformType platform) {
+        RecognitionSession session;
+        try {
+            session = session(platform);
+        } catch (Exception e) {
+            CompletableFuture<ImageSearchResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
-
-        long end_time = System.nanoTime();
-        int difference = (int) ((end_time - start_time) / 1e6 / 1000);
-        logger.info("==> Taking a screenshot took " + difference + " secs.");
-        return screenshotFile;
+        return session.findImageOnScreenAsync(searchedImageFilePath, screenshotBaseDirectory, settings);
     }
 
-    private static void takeAndroidScreenshot(String screenShotFilePath) throws IOException, InterruptedException {
-        log("Taking android screenshot...");
-        log(screenShotFilePath);
-        String[] cmd = new String[]{"screenshot2", "-d", screenShotFilePath};
-        Process p = Runtime.getRuntime().exec(cmd);
-        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        while ((line = in.readLine()) != null)
-            log(line);
-
-        int exitVal = p.waitFor();
-        if (exitVal != 0) {
-            log("screenshot2 process exited with value: " + exitVal);
+    /**
+     * Waits without blocking until an image has disappeared from the screen, polling with
+     * capturing and matching overlapped until the timeout of the settings, or for the number
+     * of retries when no timeout is set.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings
+     * @param platform Defines the platform (phone operating system) that is in use. PlatformType.ANDROID for Android and PlatformType.IOS for iOS
+     * @return Future that completes with true when the image is not on the screen, false when polling ended with the image still there, or failed for an invalid platform
+     */
+    public static CompletableFuture<Boolean> hasImageDisappearedFromScreenAsync(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings, PlatformType platform) {
+        RecognitionSession session;
+        try {
+            session = session(platform);
+        } catch (Exception e) {
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
+        return session.hasImageDisappearedFromScreenAsync(searchedImageFilePath, screenshotBaseDirectory, settings);
     }
 
-    private static void takeIDeviceScreenshot(String screenShotFilePath) throws Exception {
-        String udid = getIosUdid();
-        String[] cmd = new String[]{"idevicescreenshot", "-u", udid, screenShotFilePath};
-        Process p = Runtime.getRuntime().exec(cmd);
-        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        while ((line = in.readLine()) != null)
-            log(line);
-
-        int exitVal = p.waitFor();
-        if (exitVal != 0) {
-            log("idevicescreenshot process exited with value: " + exitVal);
-        }
-        cmd = new String[]{"sips", "-s", "format", "png", screenShotFilePath, "--out", screenShotFilePath};
-        p = Runtime.getRuntime().exec(cmd);
-        exitVal = p.waitFor();
-        if (exitVal != 0) {
-            log("sips process exited with value: " + exitVal);
-        }
-    }
-    
-    private static Size getScreenSize(PlatformType platform, String sceneImageFilePath) throws Exception {
-        if (platform.equals(PlatformType.IOS)) {
-            return getIosScreenSize(sceneImageFilePath);
-        } else {
-            return getAndroidScreenSize();
-        }
+    /**
+     * Searches for several reference images on the screen. Each retry captures one screenshot
+     * and matches all of the reference images against it.
+     *
+     * @param searchedImageFilePaths Paths to the reference image files to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings, cropping is not done for batch searches
+     * @param platform Defines the platform (phone operating system) that is in use. PlatformType.ANDROID for Android and PlatformType.IOS for iOS
+     * @param mode MatchMode.ANY_OF to stop when any of the images is found, MatchMode.ALL_OF to wait until all of them are found on the same screen
+     * @return ImageSearchResult for each reference image in the given order, from the last screenshot that was searched
+     * @throws Exception
+     */
+    public static Map<String, ImageSearchResult> findImagesOnScreen(List<String> searchedImageFilePaths, String screenshotBaseDirectory, ImageRecognitionSettings settings, PlatformType platform, MatchMode mode) throws Exception {
+        return session(platform).findImagesOnScreen(searchedImageFilePaths, screenshotBaseDirectory, settings, mode);
     }
 
-    private static Size getIosScreenSize(String sceneImageFilePath) throws Exception {
-        String udid = getIosUdid();
-        String productType = getIosProductType(udid);
-        try {
-            return getIosScreenSizePointsFromPropertiesFile(productType);
-        } catch(UnsupportedOperationException e){
-            logger.warn("Current device not included in the ios-screen-size.properties-file. Assuming x3 Retina display.");
-            logger.warn("Add the devices screen size information to the ios-screen-size.properties-file");
-            int screenHeight = (int) (imageFinder.getSceneHeight(sceneImageFilePath)/3);
-            int screenWidth = (int) (imageFinder.getSceneWidth(sceneImageFilePath)/3);
-            return new Size(screenWidth, screenHeight);
-        }
+    /**
+     * Uses the given frame source for all screen captures instead of the device tools, for
+     * example a DirectoryFrameSource or an AdbFrameSource pointing to a stand-in adb script.
+     *
+     * @param source Frame source to use, or null to capture from the device of the platform
+     */
+    public static void setFrameSource(FrameSource source) {
+        androidSession.setFrameSource(source);
+        iosSession.setFrameSource(source);
     }
 
-    private static String getIosProductType(String udid) throws IOException, InterruptedException, Exception {
-        String[] cmd = new String[]{"ideviceinfo", "-u", udid, "--key", "ProductType"};
-        Process p = Runtime.getRuntime().exec(cmd);
-        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-
-        int exitVal = p.waitFor();
-        if (exitVal != 0) {
-            throw new Exception("ideviceinfo process exited with value: " + exitVal);
-        }
-        return in.readLine();
+    /**
+     * Captures the current screen straight into memory, without writing a screenshot file.
+     *
+     * @param platform Defines the platform (phone operating system) that is in use. PlatformType.ANDROID for Android and PlatformType.IOS for iOS
+     * @return The captured frame
+     * @throws Exception
+     */
+    public static Mat captureScreen(PlatformType platform) throws Exception {
+        return session(platform).captureScreen();
     }
 
-    private static String getIosUdid() throws Exception {
-        String udid = System.getenv("UDID");
-        if (udid==null){
-            throw new Exception("$UDID was null, set UDID environment variable and try again");
-        }
-        return udid;
+    /**
+     * Waits until all screenshot and annotation files queued so far have been written.
+     *
+     * @throws InterruptedException
+     */
+    public static void flushScreenshots() throws InterruptedException {
+        imageFinder.getScreenshotWriter().flush();
     }
 
-    private static Size getIosScreenSizePointsFromPropertiesFile(String productType) throws UnsupportedOperationException, Exception {
-        Properties screenSizeProperties = fetchProperties();
-        String screenDimensionString = (String) screenSizeProperties.get(productType);
-        if (screenDimensionString == null){
-            throw new UnsupportedOperationException("ios-screen-size.properties is missing entry for: " + productType);
-        }
-        String screenDimensions[] = screenDimensionString.split(" x ");
-        if (screenDimensions.length!=2){
-            throw new Exception("Invalid ios-screen-size.properties file syntax for line: " + productType);
-        }
-        int width = Integer.parseInt(screenDimensions[0]);
-        int height = Integer.parseInt(screenDimensions[1]);
-        return new Size(width, height);
+    public static String takeScreenshot(String screenshotName, String screenshotBaseDirectory, PlatformType platform) throws Exception {
+        return session(platform).takeScreenshot(screenshotName, screenshotBaseDirectory);
     }
-    
-    private static Properties fetchProperties() throws Exception {
-        Properties iosScreenSizeProperties = new Properties();
-        InputStream input = null;
-        try {
-            String filename = "ios-screen-size.properties";
-            input = ImageRecognition.class.getClassLoader().getResourceAsStream(filename);
-            
-            if (input == null) {
-                throw new Exception("ios-screen-size.properties does not exist");
-            }
-            iosScreenSizeProperties.load(input);
 
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return iosScreenSizeProperties;
+    /**
+     * Forgets the cached screen sizes of all devices. They are resolved again on the next
+     * search, as they are after a change of screen orientation.
+     */
+    public static void refreshScreenGeometry() {
+        androidSession.refreshScreenGeometry();
+        iosSession.refreshScreenGeometry();
     }
 
-    private static Size getAndroidScreenSize() throws IOException, InterruptedException {
-        String adb = "adb";
-        String[] adbCommand = {adb, "shell", "dumpsys", "window"};
-        ProcessBuilder p = new ProcessBuilder(adbCommand);
-        Process proc = p.start();
-        InputStream stdin = proc.getInputStream();
-        InputStreamReader isr = new InputStreamReader(stdin);
-        BufferedReader br = new BufferedReader(isr);
-        String line;
-        String[] size = null;
-        while ((line = br.readLine()) != null) {
-            if (!line.contains("OriginalmUnrestrictedScreen")) { //we do this check for devices with android 5.x+ The adb command returns an extra line with the values 0x0 which must be filtered out.
-                if (line.contains("mUnrestrictedScreen")) {
-                    String[] tmp = line.split("\\) ");
-                    size = tmp[1].split("x");
-                }
-            }
+    static RecognitionSession session(PlatformType platform) throws Exception {
+        if (platform.equals(PlatformType.IOS)) {
+            return iosSession;
+        } else if (platform.equals(PlatformType.ANDROID)) {
+            return androidSession;
         }
-        int width = Integer.parseInt(size[0]);
-        int height = Integer.parseInt(size[1]);
-        return new Size(width, height);
+        throw new Exception("Invalid platformType: " + platform);
     }
-
-
 }
@@ -0,0 +1,108 @@
+package imagerecognition;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+
+/**
+ * Matched keypoint coordinates between a query image and a scene, kept as interleaved
+ * x,y float arrays so they can be put straight into the Mats used by the homography step.
+ */
+public class KeypointPairs {
+
+    public KeypointPairs(int capacity) {
+        this.objectPoints = new float[capacity * 2];
+        this.scenePoints = new float[capacity * 2];
+        this.size = 0;
+    }
+
+    /**
+     * Takes over interleaved x,y coordinate arrays holding the given number of pairs.
+     */
+    KeypointPairs(float[] objectPoints, float[] scenePoints, int size) {
+        this.objectPoints = objectPoints;
+        this.scenePoints = scenePoints;
+        this.size = size;
+    }
+
+    public void add(float objectX, float objectY, float sceneX, float sceneY) {
+        if (size * 2 == objectPoints.length) {
+            int capacity = Math.max(8, objectPoints.length * 2);
+            objectPoints = Arrays.copyOf(objectPoints, capacity);
+            scenePoints = Arrays.copyOf(scenePoints, capacity);
+        }
+        objectPoints[size * 2] = objectX;
+        objectPoints[size * 2 + 1] = objectY;
+        scenePoints[size * 2] = sceneX;
+        scenePoints[size * 2 + 1] = sceneY;
+        size++;
+    }
+
+    /**
+     * Moves every scene point by the given offset, for pairs matched in a window of the scene.
+     */
+    public void translateScene(float dx, float dy) {
+        for (int i = 0; i < size; i++) {
+            scenePoints[i * 2] += dx;
+            scenePoints[i * 2 + 1] += dy;
+        }
+    }
+
+    /**
+     * Multiplies every query image point by the given factor, for pairs matched with a
+     * downscaled copy of the query image.
+     */
+    public void scaleObject(float factor) {
+        for (int i = 0; i < size * 2; i++) {
+            objectPoints[i] *= factor;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of matches that passed the ratio test and cross-check, of which these pairs are
+     * the homography inliers. The same as size when the pairs were not filtered further.
+     */
+    public int getMatchCount() {
+        return Math.max(matchCount, size);
+    }
+
+    void setMatchCount(int matchCount) {
+        this.matchCount = matchCount;
+    }
+
+    public float[] getObjectPoints() {
+        return Arrays.copyOf(objectPoints, size * 2);
+    }
+
+    public float[] getScenePoints() {
+        return Arrays.copyOf(scenePoints, size * 2);
+    }
+
+    public MatOfPoint2f toObjectMat() {
+        return toMat(objectPoints, size);
+    }
+
+    public MatOfPoint2f toSceneMat() {
+        return toMat(scenePoints, size);
+    }
+
+    private static MatOfPoint2f toMat(float[] points, int count) {
+        MatOfPoint2f mat = new MatOfPoint2f();
+        if (count > 0) {
+            mat.create(count, 1, CvType.CV_32FC2);
+            mat.put(0, 0, count * 2 == points.length ? points : Arrays.copyOf(points, count * 2));
+        }
+        return mat;
+    }
+
+    private float[] objectPoints;
+    private float[] scenePoints;
+    private int size;
+    private int matchCount;
+}
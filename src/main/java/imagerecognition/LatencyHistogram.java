@@ -0,0 +1,115 @@
+package imagerecognition;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations in nanoseconds with logarithmic buckets, 32 per power of two, so
+ * percentiles are accurate to about 2% whatever the range of the values. Uses a fixed amount
+ * of memory however many values are recorded.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS_PER_OCTAVE = 32;
+    private static final int BUCKETS = 64 * BUCKETS_PER_OCTAVE;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[bucket(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(Arrays.copyOf(counts, BUCKETS), count, sum, count == 0 ? 0 : min, max);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    private static int bucket(long value) {
+        if (value < 1) {
+            return 0;
+        }
+        int index = (int) (Math.log(value) / Math.log(2) * BUCKETS_PER_OCTAVE);
+        return Math.min(BUCKETS - 1, index);
+    }
+
+    private static double bucketValue(int bucket) {
+        return Math.pow(2, (bucket + 0.5) / BUCKETS_PER_OCTAVE);
+    }
+
+    /**
+     * Values of a histogram at one moment, not changed by later recording.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMinNanos() {
+            return min;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100, for example 50 for the median
+         * @return The value below which the given percentage of the recorded values fall, 0 when nothing was recorded
+         */
+        public double getPercentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(max, Math.max(min, bucketValue(i)));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return count + " samples, p50 " + String.format("%.1f", getPercentileNanos(50) / 1e6)
+                    + " ms, p99 " + String.format("%.1f", getPercentileNanos(99) / 1e6)
+                    + " ms, max " + String.format("%.1f", max / 1e6) + " ms";
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package imagerecognition;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Rect;
+
+import objects.ImageLocation;
+
+/**
+ * Where each query image was last found, so that the next search for it can look around that
+ * location before searching the whole scene. Locations are kept per screenshot size, so a
+ * rotated screen or another device does not reuse them. Locations are bounding boxes in
+ * screenshot pixels, as the image lies in the screenshot. When the number of locations goes
+ * over the limit the least recently used ones are forgotten. Also counts how often the search
+ * near the last location finds the image and how long both kinds of search take.
+ */
+public class LocationMemory {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private final LinkedHashMap<String, Rect> locations = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries;
+    // attempts, hits and nanoseconds of searches near the last location
+    private final long[] window = new long[3];
+    // count and nanoseconds of searches in the whole scene
+    private final long[] full = new long[2];
+
+    public LocationMemory() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries Number of locations kept
+     */
+    public LocationMemory(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    private static String key(String queryImageFile, int sceneWidth, int sceneHeight) {
+        return queryImageFile + "@" + sceneWidth + "x" + sceneHeight;
+    }
+
+    synchronized Rect get(String queryImageFile, int sceneWidth, int sceneHeight) {
+        return locations.get(key(queryImageFile, sceneWidth, sceneHeight));
+    }
+
+    synchronized void put(String queryImageFile, int sceneWidth, int sceneHeight, ImageLocation location) {
+        if (location.getSceneBounds() == null) {
+            return;
+        }
+        locations.put(key(queryImageFile, sceneWidth, sceneHeight), location.getSceneBounds());
+        evictToLimit();
+    }
+
+    synchronized void remove(String queryImageFile, int sceneWidth, int sceneHeight) {
+        locations.remove(key(queryImageFile, sceneWidth, sceneHeight));
+    }
+
+    /**
+     * Forgets the last locations of the given query image for every screenshot size.
+     */
+    public synchronized void invalidate(String queryImageFile) {
+        locations.keySet().removeIf(key -> key.startsWith(queryImageFile + "@"));
+    }
+
+    public synchronized void invalidateAll() {
+        locations.clear();
+    }
+
+    public synchronized int size() {
+        return locations.size();
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evictToLimit();
+    }
+
+    private void evictToLimit() {
+        Iterator<Map.Entry<String, Rect>> iterator = locations.entrySet().iterator();
+        while (locations.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    synchronized void recordWindowSearch(boolean found, long nanos) {
+        window[0]++;
+        if (found) {
+            window[1]++;
+        }
+        window[2] += nanos;
+    }
+
+    synchronized void recordFullSearch(long nanos) {
+        full[0]++;
+        full[1] += nanos;
+    }
+
+    public synchronized long getWindowSearches() {
+        return window[0];
+    }
+
+    public synchronized long getWindowHits() {
+        return window[1];
+    }
+
+    public synchronized double getHitRate() {
+        return window[0] == 0 ? 0 : (double) window[1] / window[0];
+    }
+
+    public synchronized double getAverageWindowMillis() {
+        return window[0] == 0 ? 0 : window[2] / 1e6 / window[0];
+    }
+
+    public synchronized long getFullSearches() {
+        return full[0];
+    }
+
+    public synchronized double getAverageFullMillis() {
+        return full[0] == 0 ? 0 : full[1] / 1e6 / full[0];
+    }
+
+    public synchronized void reset() {
+        window[0] = 0;
+        window[1] = 0;
+        window[2] = 0;
+        full[0] = 0;
+        full[1] = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "near last location: " + window[1] + "/" + window[0] + " found, " + String.format("%.1f", getAverageWindowMillis()) + " ms avg, "
+                + "whole scene: " + full[0] + " searches, " + String.format("%.1f", getAverageFullMillis()) + " ms avg";
+    }
+}
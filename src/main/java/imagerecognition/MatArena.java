@@ -0,0 +1,48 @@
+package imagerecognition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+/**
+ * Owns the temporary Mats of one step and releases their native memory when closed, instead
+ * of leaving it to the finalizers. Mats that outlive the step must not be tracked.
+ *
+ * <pre>
+ * try (MatArena arena = new MatArena()) {
+ *     Mat h = arena.track(Calib3d.findHomography(obj, scene));
+ *     ...
+ * }
+ * </pre>
+ */
+public class MatArena implements AutoCloseable {
+
+    private final List<Mat> mats = new ArrayList<>();
+
+    public <T extends Mat> T track(T mat) {
+        if (mat != null) {
+            mats.add(mat);
+        }
+        return mat;
+    }
+
+    public <T extends Mat> List<T> trackAll(List<T> list) {
+        for (T mat : list) {
+            track(mat);
+        }
+        return list;
+    }
+
+    public Mat newMat() {
+        return track(new Mat());
+    }
+
+    @Override
+    public void close() {
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            mats.get(i).release();
+        }
+        mats.clear();
+    }
+}
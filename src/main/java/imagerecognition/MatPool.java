@@ -0,0 +1,107 @@
+package imagerecognition;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps released buffers of the sizes a device produces, so that resizing every screenshot of
+ * a run reuses the same native memory instead of allocating it again. Only a few buffers are
+ * kept per size, the rest are released.
+ */
+public class MatPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatPool.class);
+
+    public static final int DEFAULT_MAX_PER_SIZE = 4;
+
+    private final Map<String, ArrayDeque<Mat>> buffers = new HashMap<>();
+    // Buffers handed out and not recycled yet, weak so that buffers never given back are not kept
+    private final Set<Mat> acquired = Collections.newSetFromMap(new WeakHashMap<>());
+    private final int maxPerSize;
+    private long reused;
+    private long allocated;
+
+    public MatPool() {
+        this(DEFAULT_MAX_PER_SIZE);
+    }
+
+    public MatPool(int maxPerSize) {
+        this.maxPerSize = maxPerSize;
+    }
+
+    /**
+     * Returns a buffer of the given size and type, reused when one has been recycled.
+     */
+    public Mat acquire(int rows, int cols, int type) {
+        synchronized (this) {
+            ArrayDeque<Mat> free = buffers.get(key(rows, cols, type));
+            if (free != null && !free.isEmpty()) {
+                reused++;
+                Mat mat = free.pop();
+                acquired.add(mat);
+                return mat;
+            }
+            allocated++;
+        }
+        logger.debug("Allocating " + cols + "x" + rows + " buffer of type " + type);
+        Mat mat = new Mat(rows, cols, type);
+        synchronized (this) {
+            acquired.add(mat);
+        }
+        return mat;
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use it afterwards. Mats that were
+     * not acquired from this pool are released instead.
+     */
+    public void recycle(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!acquired.remove(mat) || mat.empty()) {
+                mat.release();
+                return;
+            }
+            ArrayDeque<Mat> free = buffers.computeIfAbsent(key(mat.rows(), mat.cols(), mat.type()), k -> new ArrayDeque<>());
+            if (free.size() < maxPerSize) {
+                free.push(mat);
+                return;
+            }
+        }
+        mat.release();
+    }
+
+    public synchronized long getReused() {
+        return reused;
+    }
+
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Releases every pooled buffer.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Mat> free : buffers.values()) {
+            for (Mat mat : free) {
+                mat.release();
+            }
+        }
+        buffers.clear();
+    }
+
+    private static String key(int rows, int cols, int type) {
+        return cols + "x" + rows + ":" + type;
+    }
+}
@@ -0,0 +1,196 @@
+package imagerecognition;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Binary messages exchanged with external matcher workers over their stdin and stdout. Every
+ * message is a big-endian int length followed by that many bytes of payload.
+ *
+ * Requests start with a type byte. A match request is followed by the width, height and 8-bit
+ * grayscale pixels, row by row, of the query image and then of the scene. A ping has nothing
+ * after the type.
+ *
+ * Responses start with a status byte. An OK response is followed by the number of keypoint
+ * pairs and then query x, query y, scene x and scene y as floats for each pair, a ping is
+ * answered with zero pairs. An error response is followed by a UTF-8 message.
+ */
+final class MatcherProtocol {
+
+    static final byte MATCH = 1;
+    static final byte PING = 2;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // Larger responses mean the stream is out of sync
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024 * 1024;
+
+    private MatcherProtocol() {
+    }
+
+    static byte[] encodeMatch(Mat queryImage, Mat sceneImage) {
+        int queryBytes = queryImage.cols() * queryImage.rows();
+        int sceneBytes = sceneImage.cols() * sceneImage.rows();
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + queryBytes + 8 + sceneBytes);
+        payload.put(MATCH);
+        putImage(payload, queryImage, queryBytes);
+        putImage(payload, sceneImage, sceneBytes);
+        return payload.array();
+    }
+
+    static byte[] encodePing() {
+        return new byte[]{PING};
+    }
+
+    private static void putImage(ByteBuffer payload, Mat image, int size) {
+        if (image.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Matcher workers take 8-bit grayscale images, got type " + image.type());
+        }
+        byte[] pixels = new byte[size];
+        if (size > 0) {
+            image.get(0, 0, pixels);
+        }
+        payload.putInt(image.cols());
+        payload.putInt(image.rows());
+        payload.put(pixels);
+    }
+
+    /**
+     * Reads the query image and the scene of a match request, as a worker does.
+     *
+     * @throws IOException If the request is not a well-formed match request
+     */
+    static GrayImage[] decodeMatch(byte[] request) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(request);
+        if (buffer.get() != MATCH) {
+            throw new IOException("Not a match request: " + request[0]);
+        }
+        return new GrayImage[]{getImage(buffer), getImage(buffer)};
+    }
+
+    private static GrayImage getImage(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8) {
+            throw new IOException("Match request is truncated");
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        if (width < 0 || height < 0 || (long) width * height > buffer.remaining()) {
+            throw new IOException("Match request does not hold a " + width + "x" + height + " image");
+        }
+        byte[] pixels = new byte[width * height];
+        buffer.get(pixels);
+        return new GrayImage(width, height, pixels);
+    }
+
+    static byte[] encodePairs(KeypointPairs pairs) {
+        int count = pairs.size();
+        float[] objectPoints = pairs.getObjectPoints();
+        float[] scenePoints = pairs.getScenePoints();
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + count * 16);
+        payload.put(OK);
+        payload.putInt(count);
+        for (int i = 0; i < count; i++) {
+            payload.putFloat(objectPoints[i * 2]);
+            payload.putFloat(objectPoints[i * 2 + 1]);
+            payload.putFloat(scenePoints[i * 2]);
+            payload.putFloat(scenePoints[i * 2 + 1]);
+        }
+        return payload.array();
+    }
+
+    static byte[] encodeError(String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + text.length);
+        payload.put(ERROR);
+        payload.put(text);
+        return payload.array();
+    }
+
+    static void write(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    static byte[] read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            throw new EOFException("Matcher worker closed its output");
+        }
+        if (length < 1 || length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Invalid matcher worker message length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Reads the keypoint pairs of a response straight into the coordinate arrays.
+     *
+     * @throws MatcherException If the worker answered with an error
+     * @throws IOException If the response is malformed
+     */
+    static KeypointPairs decodePairs(byte[] response) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(response);
+        byte status = buffer.get();
+        if (status == ERROR) {
+            throw new MatcherException(new String(response, 1, response.length - 1, StandardCharsets.UTF_8));
+        }
+        if (status != OK || buffer.remaining() < 4) {
+            throw new IOException("Invalid matcher worker response status: " + status);
+        }
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() != count * 16L) {
+            throw new IOException("Matcher worker response does not hold " + count + " pairs");
+        }
+        FloatBuffer values = buffer.asFloatBuffer();
+        float[] objectPoints = new float[count * 2];
+        float[] scenePoints = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            objectPoints[i * 2] = values.get();
+            objectPoints[i * 2 + 1] = values.get();
+            scenePoints[i * 2] = values.get();
+            scenePoints[i * 2 + 1] = values.get();
+        }
+        return new KeypointPairs(objectPoints, scenePoints, count);
+    }
+
+    /**
+     * 8-bit grayscale pixels of an image, row by row.
+     */
+    static final class GrayImage {
+        final int width;
+        final int height;
+        final byte[] pixels;
+
+        GrayImage(int width, int height, byte[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * Error reported by a worker that is otherwise healthy, for example for an image it could
+     * not match.
+     */
+    static final class MatcherException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MatcherException(String message) {
+            super(message);
+        }
+    }
+}
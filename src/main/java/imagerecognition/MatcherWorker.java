@@ -0,0 +1,175 @@
+package imagerecognition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One slot of a MatcherWorkerPool: a persistent worker process that is started on first use
+ * and started again after it has crashed, hung or been killed. Used by one thread at a time.
+ */
+final class MatcherWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatcherWorker.class);
+
+    private final int index;
+    private final List<String> command;
+    private final ScheduledExecutorService watchdog;
+    private volatile Process process;
+    private DataOutputStream in;
+    private DataInputStream out;
+    private long lastUsed;
+    private volatile int starts;
+    private volatile boolean timedOut;
+
+    MatcherWorker(int index, List<String> command, ScheduledExecutorService watchdog) {
+        this.index = index;
+        this.command = command;
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Sends a request and waits for the response. The process is killed when no response
+     * comes within the timeout, and on any failure so that the next request restarts it.
+     */
+    byte[] exchange(byte[] request, long timeoutMillis) throws IOException {
+        start();
+        timedOut = false;
+        Process current = process;
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            timedOut = true;
+            current.destroyForcibly();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            MatcherProtocol.write(in, request);
+            byte[] response = MatcherProtocol.read(out);
+            lastUsed = System.nanoTime();
+            return response;
+        } catch (IOException e) {
+            kill();
+            if (timedOut) {
+                throw new IOException("Matcher worker " + index + " did not answer within " + timeoutMillis + " ms", e);
+            }
+            throw e;
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Checks that the worker answers a ping, when it has been idle for longer than the given
+     * interval. A worker that does not is killed and restarted on its next request.
+     */
+    void checkHealth(long intervalMillis, long timeoutMillis) {
+        if (process == null) {
+            return;
+        }
+        if (!process.isAlive()) {
+            logger.warn("Matcher worker " + index + " exited with value " + process.exitValue());
+            kill();
+            return;
+        }
+        if (System.nanoTime() - lastUsed < TimeUnit.MILLISECONDS.toNanos(intervalMillis)) {
+            return;
+        }
+        try {
+            MatcherProtocol.decodePairs(exchange(MatcherProtocol.encodePing(), timeoutMillis));
+        } catch (IOException e) {
+            logger.warn("Matcher worker " + index + " failed its health check: " + e.getMessage());
+            kill();
+        }
+    }
+
+    private void start() throws IOException {
+        if (process != null && process.isAlive()) {
+            return;
+        }
+        if (process != null) {
+            logger.warn("Matcher worker " + index + " exited with value " + process.exitValue() + ", restarting it");
+            kill();
+        }
+        Process started = new ProcessBuilder(command).start();
+        starts++;
+        logger.info("Started matcher worker " + index + ": " + String.join(" ", command));
+        drainErrors(started.getErrorStream());
+        process = started;
+        in = new DataOutputStream(new BufferedOutputStream(started.getOutputStream()));
+        out = new DataInputStream(new BufferedInputStream(started.getInputStream()));
+        lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Logs what the worker writes to stderr on a thread of its own, so that a chatty worker
+     * never blocks on a full pipe.
+     */
+    private void drainErrors(InputStream errors) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(errors, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    logger.info("Matcher worker " + index + ": " + line);
+                }
+            } catch (IOException e) {
+                // The worker was stopped
+            }
+        }, "matcher-worker-" + index + "-stderr");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Kills the process from another thread, failing the request it may be answering.
+     */
+    void destroy() {
+        Process current = process;
+        if (current != null) {
+            current.destroyForcibly();
+        }
+    }
+
+    void kill() {
+        if (process != null) {
+            process.destroyForcibly();
+            process = null;
+        }
+    }
+
+    /**
+     * Closes the stdin of the worker so that it can exit on its own, and kills it if it has not
+     * within the grace period.
+     */
+    void stop(long graceMillis) throws InterruptedException {
+        if (process == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        if (!process.waitFor(graceMillis, TimeUnit.MILLISECONDS)) {
+            logger.warn("Matcher worker " + index + " did not exit, killing it");
+        }
+        kill();
+    }
+
+    /**
+     * Number of times the worker process has been started, more than one after restarts.
+     */
+    int getStarts() {
+        return starts;
+    }
+}
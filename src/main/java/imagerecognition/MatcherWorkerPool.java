@@ -0,0 +1,164 @@
+package imagerecognition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of persistent external matcher processes, for deployments that have to match with an
+ * external binary such as akaze_match instead of the bundled OpenCV. Each worker runs the given
+ * command once and then answers any number of requests over its stdin and stdout in the binary
+ * format described in MatcherProtocol, returning the keypoint pairs that pass its own ratio and
+ * RANSAC checks. Anything the workers write to stderr is logged.
+ *
+ * Idle workers are pinged before use once the health check interval has passed. A worker that
+ * crashes, hangs past the request timeout or stops answering pings is killed and started again,
+ * and a request that failed because of it is retried once on the restarted worker.
+ */
+public class MatcherWorkerPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatcherWorkerPool.class);
+
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30000;
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 10000;
+    private static final long STOP_GRACE_MILLIS = 2000;
+
+    private final List<MatcherWorker> workers;
+    private final BlockingQueue<MatcherWorker> idleWorkers;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "matcher-worker-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+    private volatile long healthCheckIntervalMillis = DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+    private volatile boolean closed;
+
+    /**
+     * Workers are started on first use.
+     *
+     * @param command Command that starts one worker, the executable followed by its arguments
+     * @param size Number of workers, which is how many requests can be matched at the same time
+     */
+    public MatcherWorkerPool(List<String> command, int size) {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("Matcher worker command is empty");
+        }
+        int count = Math.max(1, size);
+        this.workers = new ArrayList<>(count);
+        this.idleWorkers = new ArrayBlockingQueue<>(count);
+        List<String> workerCommand = new ArrayList<>(command);
+        for (int i = 0; i < count; i++) {
+            MatcherWorker worker = new MatcherWorker(i, workerCommand, watchdog);
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Matches a query image against a scene on the next free worker, waiting for one when all
+     * are busy.
+     *
+     * @param queryImage 8-bit grayscale query image
+     * @param sceneImage 8-bit grayscale scene, in the coordinates the pairs are returned in
+     * @return Keypoint pairs found by the worker, empty when the worker reported an error
+     * @throws IOException If the worker failed twice in a row
+     * @throws InterruptedException If interrupted while waiting for a free worker
+     */
+    public KeypointPairs match(Mat queryImage, Mat sceneImage) throws IOException, InterruptedException {
+        byte[] request = MatcherProtocol.encodeMatch(queryImage, sceneImage);
+        for (int attempt = 0; ; attempt++) {
+            MatcherWorker worker = borrow();
+            try {
+                return MatcherProtocol.decodePairs(worker.exchange(request, requestTimeoutMillis));
+            } catch (MatcherProtocol.MatcherException e) {
+                logger.error("Matcher worker could not match: " + e.getMessage());
+                return new KeypointPairs(0);
+            } catch (IOException e) {
+                if (attempt > 0 || closed) {
+                    throw e;
+                }
+                logger.warn("Matcher worker failed, retrying on a restarted worker: " + e.getMessage());
+            } finally {
+                idleWorkers.add(worker);
+            }
+        }
+    }
+
+    private MatcherWorker borrow() throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Matcher worker pool has been closed");
+        }
+        MatcherWorker worker = idleWorkers.take();
+        if (closed) {
+            idleWorkers.add(worker);
+            throw new IllegalStateException("Matcher worker pool has been closed");
+        }
+        worker.checkHealth(healthCheckIntervalMillis, requestTimeoutMillis);
+        return worker;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public long getHealthCheckIntervalMillis() {
+        return healthCheckIntervalMillis;
+    }
+
+    /**
+     * @param healthCheckIntervalMillis How long a worker may be idle before it is pinged on its next use
+     */
+    public void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+    }
+
+    /**
+     * Number of times a worker process has been started again after a failure.
+     */
+    public int getRestarts() {
+        int restarts = 0;
+        for (MatcherWorker worker : workers) {
+            restarts += Math.max(0, worker.getStarts() - 1);
+        }
+        return restarts;
+    }
+
+    /**
+     * Stops the workers once they have finished their current requests. When interrupted while
+     * waiting for them, kills the workers that are left and keeps the interrupt flag set.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List<MatcherWorker> stopped = new ArrayList<>(workers.size());
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                MatcherWorker worker = idleWorkers.take();
+                stopped.add(worker);
+                worker.stop(STOP_GRACE_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while stopping matcher workers, killing them");
+            for (MatcherWorker worker : workers) {
+                worker.destroy();
+            }
+        }
+        // Given back so that callers still waiting for a worker fail instead of waiting forever
+        idleWorkers.addAll(stopped);
+        watchdog.shutdown();
+    }
+}
@@ -0,0 +1,21 @@
+package imagerecognition;
+
+/**
+ * Receives stage timings and event counts of searches. Called from the threads doing the
+ * searches, so implementations must be thread safe and should return quickly.
+ *
+ * The query image is the absolute path of the query image the value belongs to, or null for
+ * work shared by every query image searched in a scene, like capturing and decoding it.
+ */
+public interface MetricsListener {
+
+    /** Listener that ignores everything, used when no listener is set. */
+    MetricsListener NONE = new MetricsListener() {
+    };
+
+    default void recordTime(RecognitionStage stage, String queryImage, long nanos) {
+    }
+
+    default void increment(RecognitionCounter counter, String queryImage) {
+    }
+}
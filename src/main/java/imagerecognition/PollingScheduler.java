@@ -0,0 +1,98 @@
+package imagerecognition;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.ImageRecognitionSettings;
+import objects.PollingPolicy;
+
+/**
+ * Decides when the screen is polled again while waiting for an image to appear or disappear.
+ * Polling stops at the deadline when a timeout is set and after the retry count otherwise.
+ */
+public class PollingScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PollingScheduler.class);
+
+    public PollingScheduler(ImageRecognitionSettings settings) {
+        this.policy = settings.getPollingPolicy();
+        this.initialInterval = settings.getPollIntervalMillis();
+        this.maxInterval = Math.max(settings.getMaxPollIntervalMillis(), initialInterval);
+        this.backoffFactor = settings.getPollBackoffFactor();
+        this.jitter = settings.getPollJitter();
+        this.maxPolls = settings.getRetries();
+        this.deadline = settings.getTimeoutMillis() > 0 ? System.nanoTime() + settings.getTimeoutMillis() * 1000000L : 0;
+        this.interval = initialInterval;
+    }
+
+    /**
+     * @return true when the screen may be polled again, counting the poll
+     */
+    public boolean nextPoll() {
+        if (!hasTimeLeft()) {
+            return false;
+        }
+        polls++;
+        return true;
+    }
+
+    /**
+     * Number of polls so far, the current one included.
+     */
+    public int getPolls() {
+        return polls;
+    }
+
+    /**
+     * Sleeps until the next poll. Does not sleep when no further poll will be made and never
+     * sleeps past the deadline.
+     *
+     * @param screenChanged Whether the last screenshot differed from the one before it
+     */
+    public void waitForNextPoll(boolean screenChanged) throws InterruptedException {
+        if (policy == PollingPolicy.ADAPTIVE && screenChanged) {
+            interval = initialInterval;
+        }
+        long sleepMillis = withJitter(interval);
+        if (policy != PollingPolicy.FIXED) {
+            interval = Math.min(maxInterval, (long) (interval * backoffFactor));
+        }
+        if (deadline == 0 ? polls >= maxPolls : !hasTimeLeft()) {
+            return;
+        }
+        if (deadline != 0) {
+            sleepMillis = Math.min(sleepMillis, (deadline - System.nanoTime()) / 1000000L);
+        }
+        if (sleepMillis > 0) {
+            logger.info("Polling the screen again in " + sleepMillis + " ms.");
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    private boolean hasTimeLeft() {
+        if (deadline == 0) {
+            return polls < maxPolls;
+        }
+        return polls == 0 || System.nanoTime() < deadline;
+    }
+
+    private long withJitter(long millis) {
+        if (jitter <= 0 || millis <= 0) {
+            return millis;
+        }
+        double offset = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter;
+        return Math.max(0, Math.round(millis * (1 + offset)));
+    }
+
+    private final PollingPolicy policy;
+    private final long initialInterval;
+    private final long maxInterval;
+    private final double backoffFactor;
+    private final double jitter;
+    private final int maxPolls;
+    private final long deadline;
+    private long interval;
+    private int polls;
+}
@@ -0,0 +1,188 @@
+package imagerecognition;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decoded query image together with its extracted AKAZE features.
+ *
+ * The native memory is freed when the last holder of the query image releases it. Whoever
+ * creates a query image holds it once, the cache holds it while it is cached and every
+ * caller of QueryImageCache.get holds it until it is done matching.
+ */
+public class QueryImage {
+
+    public QueryImage(String path, long lastModified, Mat image, ImageFeatures features) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.image = image;
+        this.features = features;
+        this.featureSizeBytes = byteSize(image) + byteSize(features);
+        this.references = 1;
+    }
+
+    /**
+     * Sets the cache that holds this query image, which is told when a scaled template or
+     * scaled features are added.
+     */
+    void setCache(QueryImageCache cache) {
+        this.cache = cache;
+    }
+
+    private static long byteSize(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private static long byteSize(ImageFeatures features) {
+        return byteSize(features.getKeypoints()) + byteSize(features.getDescriptors()) + features.size() * 2L * Float.BYTES;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public Mat getImage() {
+        return image;
+    }
+
+    public ImageFeatures getFeatures() {
+        return features;
+    }
+
+    /**
+     * Grayscale query image scaled to the working resolution of a scene, for template
+     * matching. A template is kept for every factor, since the scenes of one device share a
+     * factor and searches of a region or near the last location use another one. They are
+     * freed with the query image.
+     */
+    public Mat getGrayTemplate(double resizeFactor) {
+        Mat scaledTemplate;
+        long grownBytes;
+        synchronized (this) {
+            scaledTemplate = templates.get(resizeFactor);
+            if (scaledTemplate != null) {
+                return scaledTemplate;
+            }
+            scaledTemplate = scaleTemplate(resizeFactor);
+            templates.put(resizeFactor, scaledTemplate);
+            grownBytes = byteSize(scaledTemplate);
+        }
+        grown(grownBytes);
+        return scaledTemplate;
+    }
+
+    /**
+     * Features of the query image scaled down by the given factor, for matching against a
+     * scene that is scaled down further than the working resolution. Keypoint coordinates are
+     * in pixels of the scaled image. Extracted once per factor and freed with the query image.
+     */
+    public ImageFeatures getScaledFeatures(double scale, AkazeMatcher matcher) {
+        synchronized (this) {
+            ImageFeatures scaled = scaledFeatures.get(scale);
+            if (scaled != null) {
+                return scaled;
+            }
+        }
+        Mat template = getGrayTemplate(scale);
+        ImageFeatures scaled;
+        synchronized (this) {
+            scaled = scaledFeatures.get(scale);
+            if (scaled != null) {
+                return scaled;
+            }
+            scaled = matcher.extractFeatures(template);
+            scaledFeatures.put(scale, scaled);
+        }
+        grown(byteSize(scaled));
+        return scaled;
+    }
+
+    private void grown(long grownBytes) {
+        // Outside the lock, the cache may evict and so lock query images itself
+        QueryImageCache owner = cache;
+        if (owner != null) {
+            owner.queryImageGrown(this, grownBytes);
+        }
+    }
+
+    private Mat scaleTemplate(double resizeFactor) {
+        Mat gray = new Mat();
+        if (image.channels() == 1) {
+            image.copyTo(gray);
+        } else {
+            int conversion = image.channels() == 4 ? Imgproc.COLOR_BGRA2GRAY : Imgproc.COLOR_BGR2GRAY;
+            Imgproc.cvtColor(image, gray, conversion);
+        }
+        if (resizeFactor != 1) {
+            Mat scaled = new Mat();
+            Imgproc.resize(gray, scaled, new Size(image.cols() / resizeFactor, image.rows() / resizeFactor), 0, 0, Imgproc.INTER_AREA);
+            gray.release();
+            gray = scaled;
+        }
+        return gray;
+    }
+
+    /**
+     * Size of the image, its features and the scaled templates and features in native memory.
+     */
+    public synchronized long getSizeBytes() {
+        long size = featureSizeBytes;
+        for (Mat template : templates.values()) {
+            size += byteSize(template);
+        }
+        for (ImageFeatures scaled : scaledFeatures.values()) {
+            size += byteSize(scaled);
+        }
+        return size;
+    }
+
+    /**
+     * Holds the query image once more, until a matching call to release.
+     *
+     * @throws IllegalStateException if the query image has already been freed
+     */
+    public synchronized QueryImage retain() {
+        if (references == 0) {
+            throw new IllegalStateException("Query image has already been released: " + path);
+        }
+        references++;
+        return this;
+    }
+
+    /**
+     * Stops holding the query image and frees its native memory when nobody holds it anymore.
+     */
+    public synchronized void release() {
+        if (references == 0 || --references > 0) {
+            return;
+        }
+        image.release();
+        features.release();
+        for (Mat template : templates.values()) {
+            template.release();
+        }
+        templates.clear();
+        for (ImageFeatures scaled : scaledFeatures.values()) {
+            scaled.release();
+        }
+        scaledFeatures.clear();
+    }
+
+    private final String path;
+    private final long lastModified;
+    private final Mat image;
+    private final ImageFeatures features;
+    private final long featureSizeBytes;
+    private final Map<Double, Mat> templates = new HashMap<>();
+    private final Map<Double, ImageFeatures> scaledFeatures = new HashMap<>();
+    private volatile QueryImageCache cache;
+    private int references;
+}
@@ -0,0 +1,268 @@
+package imagerecognition;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps decoded query images and their features in memory so that repeated searches for
+ * the same image only have to extract the scene features.
+ *
+ * Entries are keyed by path and validated against the file modification time. When the
+ * total size goes over the byte budget the least recently used entries are evicted. The size
+ * includes the scaled templates used for template matching and the scaled features used by
+ * the coarse pyramid levels.
+ *
+ * A query image missing from the cache is loaded once: threads that ask for it while it is
+ * being loaded wait for that load instead of extracting the same features again.
+ *
+ * ImageRecognition and every RecognitionSession not given a cache of its own share one cache,
+ * so the features of a query image are held once however many devices search for it.
+ */
+public class QueryImageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryImageCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static QueryImageCache shared;
+
+    private final AkazeMatcher matcher;
+    private volatile DescriptorIndex descriptorIndex;
+    private final LinkedHashMap<String, QueryImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Loads in progress, completed when the loaded image is in the cache or the load failed
+    private final Map<String, CompletableFuture<Void>> loading = new HashMap<>();
+    private long maxBytes;
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryImageCache(AkazeMatcher matcher) {
+        this(matcher, DEFAULT_MAX_BYTES);
+    }
+
+    public QueryImageCache(AkazeMatcher matcher, long maxBytes) {
+        this.matcher = matcher;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The cache shared by ImageRecognition and the sessions created without a cache of their
+     * own, created on first use with the default budget.
+     */
+    public static synchronized QueryImageCache getShared() {
+        if (shared == null) {
+            shared = new QueryImageCache(new AkazeMatcher());
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the cached query image, decoding it and extracting its features on a miss.
+     * The caller holds the returned image and releases it when done with it, so that it is
+     * not freed while in use when the cache evicts it.
+     *
+     * @param path Path to the query image file
+     * @return The query image or null if the file could not be decoded
+     */
+    public QueryImage get(String path) {
+        return get(path, MetricsListener.NONE);
+    }
+
+    /**
+     * Returns the cached query image like get(path), reporting the cache hit or miss and the
+     * feature extraction to the given listener.
+     */
+    public QueryImage get(String path, MetricsListener metrics) {
+        File file = new File(path);
+        String key = key(path);
+        while (true) {
+            long lastModified = file.lastModified();
+            CompletableFuture<Void> pending;
+            synchronized (this) {
+                QueryImage cached = entries.get(key);
+                if (cached != null && cached.getLastModified() == lastModified) {
+                    hits++;
+                    metrics.increment(RecognitionCounter.QUERY_CACHE_HIT, key);
+                    return cached.retain();
+                }
+                pending = loading.get(key);
+                if (pending == null) {
+                    misses++;
+                    loading.put(key, new CompletableFuture<>());
+                }
+            }
+            if (pending == null) {
+                metrics.increment(RecognitionCounter.QUERY_CACHE_MISS, key);
+                return load(path, key, lastModified, metrics);
+            }
+            // Looked up again once loaded, a failed load is then retried by this thread
+            pending.join();
+        }
+    }
+
+    private QueryImage load(String path, String key, long lastModified, MetricsListener metrics) {
+        QueryImage queryImage = null;
+        try {
+            queryImage = read(path, key, lastModified, metrics);
+            return queryImage;
+        } finally {
+            CompletableFuture<Void> pending;
+            synchronized (this) {
+                if (queryImage != null) {
+                    // Held for the caller before the cache may evict it again
+                    queryImage.retain();
+                    put(key, queryImage);
+                }
+                pending = loading.remove(key);
+            }
+            pending.complete(null);
+        }
+    }
+
+    private QueryImage read(String path, String key, long lastModified, MetricsListener metrics) {
+        File file = new File(path);
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            logger.error("Query image could not be read: " + path);
+            return null;
+        }
+        Mat image = DescriptorIndex.decode(content);
+        if (image.empty()) {
+            image.release();
+            logger.error("Query image could not be decoded: " + path);
+            return null;
+        }
+        ImageFeatures features = null;
+        try {
+            DescriptorIndex index = descriptorIndex;
+            if (index != null) {
+                features = index.getFeatures(content);
+            }
+            if (features == null) {
+                long start = System.nanoTime();
+                features = matcher.extractFeatures(image);
+                metrics.recordTime(RecognitionStage.EXTRACTION, key, System.nanoTime() - start);
+            }
+        } catch (RuntimeException e) {
+            image.release();
+            throw e;
+        }
+        return new QueryImage(key, lastModified, image, features);
+    }
+
+    /**
+     * Sets a precomputed descriptor index that is consulted before extracting features on a miss.
+     *
+     * @param descriptorIndex The index to use, or null to always extract
+     */
+    public void setDescriptorIndex(DescriptorIndex descriptorIndex) {
+        this.descriptorIndex = descriptorIndex;
+    }
+
+    public DescriptorIndex getDescriptorIndex() {
+        return descriptorIndex;
+    }
+
+    /**
+     * Key of a query image in the cache, which is also the path reported to the MetricsListener.
+     */
+    static String key(String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    private synchronized void put(String key, QueryImage queryImage) {
+        QueryImage previous = entries.put(key, queryImage);
+        if (previous != null) {
+            sizeBytes -= previous.getSizeBytes();
+            previous.setCache(null);
+            previous.release();
+        }
+        sizeBytes += queryImage.getSizeBytes();
+        queryImage.setCache(this);
+        evictToBudget();
+    }
+
+    /**
+     * Counts a scaled template or scaled features added to a cached query image, which may
+     * make the cache evict it or other images.
+     */
+    synchronized void queryImageGrown(QueryImage queryImage, long grownBytes) {
+        if (entries.get(queryImage.getPath()) != queryImage) {
+            // Already evicted, with its size at that time
+            return;
+        }
+        sizeBytes += grownBytes;
+        evictToBudget();
+    }
+
+    private void evictToBudget() {
+        Iterator<Map.Entry<String, QueryImage>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            QueryImage eldest = iterator.next().getValue();
+            iterator.remove();
+            sizeBytes -= eldest.getSizeBytes();
+            evictions++;
+            logger.debug("Evicted query image from cache: " + eldest.getPath());
+            // Freed now, or by the last search still using it
+            eldest.release();
+        }
+    }
+
+    public synchronized void invalidate(String path) {
+        QueryImage removed = entries.remove(key(path));
+        if (removed != null) {
+            sizeBytes -= removed.getSizeBytes();
+            removed.release();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (QueryImage removed : entries.values()) {
+            removed.release();
+        }
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToBudget();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
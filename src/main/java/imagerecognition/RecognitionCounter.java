@@ -0,0 +1,25 @@
+package imagerecognition;
+
+/**
+ * Events that are counted and reported to the MetricsListener.
+ */
+public enum RecognitionCounter {
+    /** The query image was found on the screen. */
+    HIT,
+    /** The query image was not found on the screen. */
+    MISS,
+    /** Another screenshot was polled after the first one. */
+    RETRY,
+    /** A match was rejected because its sides had different lengths. */
+    DIMENSION_REJECTION,
+    /** A match was rejected because its size ratio differed from the query image. */
+    RATIO_REJECTION,
+    /** A match was rejected because it lies outside the screen. */
+    SCREEN_BOUNDS_REJECTION,
+    QUERY_CACHE_HIT,
+    QUERY_CACHE_MISS,
+    SCREEN_SIZE_CACHE_HIT,
+    SCREEN_SIZE_CACHE_MISS,
+    OCR_CACHE_HIT,
+    OCR_CACHE_MISS
+}
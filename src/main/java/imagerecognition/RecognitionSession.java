@@ -0,0 +1,738 @@
+package imagerecognition;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.ImageLocation;
+import objects.ImageRecognitionSettings;
+import objects.ImageSearchResult;
+import objects.MatchMode;
+import objects.PlatformType;
+import objects.Scene;
+
+/**
+ * Image recognition for one device. A session owns its screen size cache, screenshot writer
+ * and temporary directory, so sessions for different devices can be used from different
+ * threads at the same time. A session can also be shared by several threads.
+ *
+ * Query images and their features are kept in QueryImageCache.getShared() unless the session
+ * is given a cache of its own, so that sessions searching for the same images hold them once.
+ */
+public class RecognitionSession implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecognitionSession.class);
+
+    private static final long DISAPPEAR_TIMEOUT_MILLIS = 300000;
+    private static final long DISAPPEAR_POLL_INTERVAL_MILLIS = 3000;
+
+    static {
+        AkazeImageFinder.setupOpenCVEnv();
+    }
+
+    private final PlatformType platform;
+    private final String deviceId;
+    private final AkazeImageFinder imageFinder;
+    private final boolean ownsImageFinder;
+    private final ScreenGeometryCache screenGeometryCache = new ScreenGeometryCache();
+    private volatile ImageRecognitionSettings settings;
+    private volatile FrameSource frameSource;
+    private volatile MetricsListener metrics = MetricsListener.NONE;
+    private File tempDirectory;
+    private boolean closed;
+
+    /**
+     * @param platform Platform of the device
+     * @param deviceId Serial of the Android device or UDID of the iOS device. With null the only
+     * connected Android device or the iOS device in the UDID environment variable is used.
+     */
+    public RecognitionSession(PlatformType platform, String deviceId) {
+        this(platform, deviceId, new ImageRecognitionSettings());
+    }
+
+    /**
+     * @param platform Platform of the device
+     * @param deviceId Serial of the Android device or UDID of the iOS device. With null the only
+     * connected Android device or the iOS device in the UDID environment variable is used.
+     * @param settings Settings used by the methods that do not take settings
+     */
+    public RecognitionSession(PlatformType platform, String deviceId, ImageRecognitionSettings settings) {
+        this(platform, deviceId, settings, QueryImageCache.getShared());
+    }
+
+    /**
+     * @param platform Platform of the device
+     * @param deviceId Serial of the Android device or UDID of the iOS device. With null the only
+     * connected Android device or the iOS device in the UDID environment variable is used.
+     * @param settings Settings used by the methods that do not take settings
+     * @param queryImageCache Cache of query images and their features used by this session
+     */
+    public RecognitionSession(PlatformType platform, String deviceId, ImageRecognitionSettings settings, QueryImageCache queryImageCache) {
+        this(platform, deviceId, settings, new AkazeImageFinder(queryImageCache), true);
+    }
+
+    RecognitionSession(PlatformType platform, String deviceId, ImageRecognitionSettings settings, AkazeImageFinder imageFinder, boolean ownsImageFinder) {
+        this.platform = platform;
+        this.deviceId = deviceId;
+        this.settings = settings;
+        this.imageFinder = imageFinder;
+        this.ownsImageFinder = ownsImageFinder;
+    }
+
+    private void log(String message) {
+        logger.info(deviceId != null ? "[" + deviceId + "] " + message : message);
+    }
+
+    public PlatformType getPlatform() {
+        return platform;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public ImageRecognitionSettings getSettings() {
+        return settings;
+    }
+
+    public void setSettings(ImageRecognitionSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Cache of decoded query images and their extracted features. Can be used to change the
+     * memory budget, invalidate entries and read the hit and miss counters. Unless the session
+     * was given a cache of its own, this is the cache shared with the other sessions.
+     */
+    public QueryImageCache getQueryImageCache() {
+        return imageFinder.getQueryImageCache();
+    }
+
+    /**
+     * Attempts, matches and time spent per recognition strategy in this session.
+     */
+    public StrategyTimings getStrategyTimings() {
+        return imageFinder.getStrategyTimings();
+    }
+
+    /**
+     * Last known location of each reference image, with the hit rate and latency of searches
+     * near the last location compared to searches of the whole screen.
+     */
+    public LocationMemory getLocationMemory() {
+        return imageFinder.getLocationMemory();
+    }
+
+    /**
+     * Sets the pool on which the query images of a batch search are matched in parallel.
+     * The common fork-join pool is used by default.
+     */
+    public void setMatchingPool(ForkJoinPool matchingPool) {
+        imageFinder.setMatchingPool(matchingPool);
+    }
+
+    /**
+     * Matches with persistent external worker processes instead of the bundled OpenCV.
+     *
+     * @param externalMatcher The workers to match on, or null to match in-process again
+     */
+    public void setExternalMatcher(MatcherWorkerPool externalMatcher) {
+        imageFinder.setExternalMatcher(externalMatcher);
+    }
+
+    /**
+     * Memory-maps a descriptor index built with DescriptorIndex.build so that query image
+     * features are read from it instead of being extracted. The index is set on the query image
+     * cache, so it is used by every session sharing that cache.
+     *
+     * @throws IOException If the index file cannot be opened
+     */
+    public void loadDescriptorIndex(String descriptorIndexFile) throws IOException {
+        getQueryImageCache().setDescriptorIndex(DescriptorIndex.open(new File(descriptorIndexFile)));
+    }
+
+    /**
+     * Uses the given frame source for all screen captures instead of the device tools.
+     *
+     * @param source Frame source to use, or null to capture from the device of the session
+     */
+    public void setFrameSource(FrameSource source) {
+        frameSource = source;
+    }
+
+    /**
+     * Sets the listener that receives the stage timings and event counts of the searches of
+     * this session, for example a HistogramMetrics. A session created with a shared image
+     * finder only reports the steps it does itself: capturing, screen size lookup, retries,
+     * hits and misses.
+     *
+     * @param metrics The listener, or MetricsListener.NONE to stop reporting
+     */
+    public void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+        screenGeometryCache.setMetricsListener(metrics);
+        if (ownsImageFinder) {
+            imageFinder.setMetricsListener(metrics);
+        }
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metrics;
+    }
+
+    /**
+     * Directory for temporary files of this session, created on first use and removed when the
+     * session is closed.
+     */
+    public synchronized File getTempDirectory() throws IOException {
+        if (tempDirectory == null) {
+            String prefix = "imagerecognition-" + (deviceId != null ? deviceId.replaceAll("[^A-Za-z0-9._-]", "_") + "-" : "");
+            tempDirectory = Files.createTempDirectory(prefix).toFile();
+        }
+        return tempDirectory;
+    }
+
+    /**
+     * Find the location of the reference image in a scene file, with the settings of the session.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param sceneImageFilePath Path to the scene file in which the image is going to be searched for
+     * @return Returns the location of the image or null if image has not been found
+     * @throws Exception
+     */
+    public ImageLocation findImage(String searchedImageFilePath, String sceneImageFilePath) throws Exception {
+        return findImage(searchedImageFilePath, sceneImageFilePath, settings);
+    }
+
+    /**
+     * Find the location of the reference image in a scene file.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param sceneImageFilePath Path to the scene file in which the image is going to be searched for
+     * @param settings Image recognition related settings
+     * @return Returns the location of the image or null if image has not been found
+     * @throws Exception
+     */
+    public ImageLocation findImage(String searchedImageFilePath, String sceneImageFilePath, ImageRecognitionSettings settings) throws Exception {
+        Scene scene = imageFinder.readScene(sceneImageFilePath);
+        try {
+            return findImage(searchedImageFilePath, scene, settings);
+        } finally {
+            scene.release();
+        }
+    }
+
+    /**
+     * Find the locations of several reference images in one scene file. The scene is decoded
+     * and its features are extracted only once for all of the reference images.
+     *
+     * @param searchedImageFilePaths Paths to the reference image files to be searched
+     * @param sceneImageFilePath Path to the scene file in which the images are going to be searched for
+     * @param settings Image recognition related settings
+     * @return Location of each reference image in the given order, the value is null when the image has not been found
+     * @throws Exception
+     */
+    public Map<String, ImageLocation> findImages(List<String> searchedImageFilePaths, String sceneImageFilePath, ImageRecognitionSettings settings) throws Exception {
+        Scene scene = imageFinder.readScene(sceneImageFilePath);
+        try {
+            return findImages(searchedImageFilePaths, scene, settings, null);
+        } finally {
+            scene.release();
+        }
+    }
+
+    private ImageLocation findImage(String searchedImageFilePath, Scene scene, ImageRecognitionSettings settings) throws Exception {
+        return findImages(Collections.singletonList(searchedImageFilePath), scene, settings, null).get(searchedImageFilePath);
+    }
+
+    private Map<String, ImageLocation> findImages(List<String> searchedImageFilePaths, Scene scene, ImageRecognitionSettings settings, MatchMode mode) throws Exception {
+        log("Searching for " + String.join(", ", searchedImageFilePaths));
+        log("Searching in " + (scene.getFile() != null ? scene.getFile() : "captured frame"));
+        Size screenSize = null;
+        int regionScale = 1;
+        if (platform.equals(PlatformType.IOS) && settings.getSearchRegion() != null && !settings.getSearchRegion().isFractional()) {
+            // Absolute regions are in points like the found locations, the screenshot is in pixels
+            screenSize = getScreenSize(scene);
+            regionScale = iosPixelsPerPoint(screenSize, scene);
+        }
+        Map<String, ImageLocation> locations = imageFinder.findImages(searchedImageFilePaths, scene, settings, mode, regionScale);
+
+        for (Map.Entry<String, ImageLocation> entry : locations.entrySet()) {
+            ImageLocation imgLocation = entry.getValue();
+            if (imgLocation == null) {
+                continue;
+            }
+            if (screenSize == null) {
+                screenSize = getScreenSize(scene);
+            }
+            if (platform.equals(PlatformType.IOS)) {
+                imgLocation = scaleImageRectangleForIos(screenSize, imgLocation, scene);
+            }
+            Point center = imgLocation.getCenter();
+            if (!isPointInsideScreenBounds(center, screenSize)) {
+                log("Screen size is (width, height): " + screenSize.width + ", " + screenSize.height);
+                log("WARNING: Coordinates found do not match the screen --> image not found.");
+                metrics.increment(RecognitionCounter.SCREEN_BOUNDS_REJECTION, QueryImageCache.key(entry.getKey()));
+                imgLocation = null;
+            }
+            entry.setValue(imgLocation);
+        }
+        for (Map.Entry<String, ImageLocation> entry : locations.entrySet()) {
+            metrics.increment(entry.getValue() != null ? RecognitionCounter.HIT : RecognitionCounter.MISS, QueryImageCache.key(entry.getKey()));
+        }
+        return locations;
+    }
+
+    private Size getScreenSize(Scene scene) throws Exception {
+        long start = System.nanoTime();
+        Size screenSize = screenGeometryCache.getScreenSize(platform, deviceId, scene);
+        metrics.recordTime(RecognitionStage.SCREEN_SIZE, null, System.nanoTime() - start);
+        return screenSize;
+    }
+
+    private ImageLocation scaleImageRectangleForIos(Size screenSize, ImageLocation imageLocation, Scene scene) {
+        //for retina devices we need to recalculate coordinates
+        int pixelsPerPoint = iosPixelsPerPoint(screenSize, scene);
+        if (pixelsPerPoint > 1) {
+            log("Recalculating coordinates for x" + pixelsPerPoint + " retina displays..");
+            imageLocation.divideCoordinatesBy(pixelsPerPoint);
+            log("Device with Retina display rendered at x" + pixelsPerPoint + " => coordinates have been recalculated");
+        }
+        return imageLocation;
+    }
+
+    /**
+     * Screenshot pixels per point of an iOS screen: 1, or 2 or 3 for retina displays.
+     */
+    private static int iosPixelsPerPoint(Size screenSize, Scene scene) {
+        double sceneHeight = scene.getHeight();
+        double sceneWidth = scene.getWidth();
+        int screenHeight = (int) screenSize.height;
+        int screenWidth = (int) screenSize.width;
+
+        // Make sure screenshot size values are "landscape" for comparison
+        if (sceneHeight > sceneWidth) {
+            double temp = sceneHeight;
+            sceneHeight = sceneWidth;
+            sceneWidth = temp;
+        }
+
+        // Make sure screen size values are "landscape" for comparison
+        if (screenHeight > screenWidth) {
+            int temp = screenHeight;
+            screenHeight = screenWidth;
+            screenWidth = temp;
+        }
+
+        if ((screenHeight<sceneHeight) && (screenWidth<sceneWidth)) {
+            if ((screenHeight<sceneHeight/2)&&(screenWidth<sceneWidth/2)) {
+                return 3;
+            }
+            return 2;
+        }
+        return 1;
+    }
+
+    private static boolean isPointInsideScreenBounds(Point center, Size screenSize) {
+        return !((center.x >= screenSize.width) || (center.x < 0) || (center.y >= screenSize.height) || (center.y < 0));
+    }
+
+    /**
+     * Checks whether image disappears from screen within 300 seconds, polling every 3 seconds.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @return True if the image cannot be found or disappears successfully. False if the image can be found and the function timeouts.
+     * @throws Exception
+     */
+    public boolean hasImageDissappearedFromScreenBeforeTimeout(String searchedImageFilePath, String screenshotBaseDirectory) throws Exception {
+        ImageRecognitionSettings settings = new ImageRecognitionSettings();
+        settings.setTimeoutMillis(DISAPPEAR_TIMEOUT_MILLIS);
+        settings.setPollIntervalMillis(DISAPPEAR_POLL_INTERVAL_MILLIS);
+        return hasImageDissappearedFromScreenBeforeTimeout(searchedImageFilePath, screenshotBaseDirectory, settings);
+    }
+
+    /**
+     * Checks whether image disappears from screen before the timeout of the settings, or within
+     * the number of retries when no timeout is set.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings, including the timeout and polling policy
+     * @return True if the image cannot be found or disappears successfully. False if the image can be found and the function timeouts.
+     * @throws Exception
+     */
+    public boolean hasImageDissappearedFromScreenBeforeTimeout(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings) throws Exception {
+        log("==> Trying to find image: " + searchedImageFilePath);
+        FrameChangeDetector frameChangeDetector = new FrameChangeDetector(settings.getUnchangedFrameTolerance());
+        PollingScheduler scheduler = new PollingScheduler(settings);
+        while (scheduler.nextPoll()) {
+            countRetry(scheduler.getPolls() - 1, Collections.singletonList(searchedImageFilePath));
+            String screenshotName = FilenameUtils.getBaseName(searchedImageFilePath) + "_screenshot_"+(scheduler.getPolls() - 1);
+            Scene scene = captureScene(screenshotName, screenshotBaseDirectory, settings);
+            boolean unchanged;
+            boolean disappeared;
+            try {
+                unchanged = frameChangeDetector.isUnchanged(scene);
+                // The image was found on the last searched frame, so it is still there on an identical one
+                if (unchanged && settings.isSkipUnchangedFrames()) {
+                    disappeared = false;
+                } else {
+                    frameChangeDetector.markSearched(scene);
+                    disappeared = findImage(searchedImageFilePath, scene, settings) == null;
+                }
+            } finally {
+                scene.release();
+            }
+            if (disappeared) {
+                log("Image has successfully disappeared from screen.");
+                return true;
+            }
+            scheduler.waitForNextPoll(!unchanged);
+        }
+        logger.warn("Image did not disappear from screen");
+        return false;
+    }
+
+    /**
+     * Searches for an image on the screen with the settings of the session.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @return ImageSearchResult, an object containing information about the location of the found image and a screenshot from the moment the reference image was found.
+     * @throws Exception
+     */
+    public ImageSearchResult findImageOnScreen(String searchedImageFilePath, String screenshotBaseDirectory) throws Exception {
+        return findImageOnScreen(searchedImageFilePath, screenshotBaseDirectory, settings);
+    }
+
+    /**
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings
+     * @return ImageSearchResult, an object containing information about the location of the found image and a screenshot from the moment the reference image was found.
+     * @throws Exception
+     */
+    public ImageSearchResult findImageOnScreen(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings) throws Exception {
+        ImageSearchResult imageSearchResult = findImageLoop(searchedImageFilePath, screenshotBaseDirectory, settings);
+        if (imageSearchResult.isFound() && settings.isCrop()) {
+            log("Cropping image..");
+            imageFinder.cropImage(imageSearchResult, settings.isSaveCroppedImage());
+            log("Cropping image.. Succeeded!");
+        }
+        return imageSearchResult;
+    }
+
+    /**
+     * Searches for an image on the screen without blocking. The next screenshot is captured
+     * while the previous one is being matched, and polling stops as soon as the image is found.
+     * Cancelling the returned future stops capturing and matching.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings
+     * @return Future of the ImageSearchResult, which is not found when polling ended without finding the image
+     */
+    public CompletableFuture<ImageSearchResult> findImageOnScreenAsync(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings) {
+        String imageName = FilenameUtils.getBaseName(searchedImageFilePath);
+        long start_time = System.nanoTime();
+        return FramePipeline.start(settings,
+                index -> {
+                    countRetry(index, Collections.singletonList(searchedImageFilePath));
+                    return captureScene(imageName + "_screenshot_" + index, screenshotBaseDirectory, settings);
+                },
+                scene -> {
+                    ImageLocation imageLocation;
+                    try {
+                        imageLocation = findImage(searchedImageFilePath, scene, settings);
+                    } catch (Exception e) {
+                        scene.release();
+                        throw e;
+                    }
+                    if (imageLocation == null) {
+                        scene.release();
+                        return null;
+                    }
+                    log("==> Find image took: " + String.format("%.3f", (System.nanoTime() - start_time) / 1e9) + " secs.");
+                    ImageSearchResult imageSearchResult = new ImageSearchResult();
+                    imageSearchResult.setImageLocation(imageLocation);
+                    imageSearchResult.setScreenshotFile(scene.getFile());
+                    imageSearchResult.setScene(scene);
+                    if (settings.isCrop()) {
+                        imageFinder.cropImage(imageSearchResult, settings.isSaveCroppedImage());
+                    }
+                    return imageSearchResult;
+                },
+                new ImageSearchResult());
+    }
+
+    /**
+     * Waits without blocking until an image has disappeared from the screen, polling with
+     * capturing and matching overlapped until the timeout of the settings, or for the number
+     * of retries when no timeout is set.
+     *
+     * @param searchedImageFilePath Path to the reference image file to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings
+     * @return Future that completes with true when the image is not on the screen, false when polling ended with the image still there
+     */
+    public CompletableFuture<Boolean> hasImageDisappearedFromScreenAsync(String searchedImageFilePath, String screenshotBaseDirectory, ImageRecognitionSettings settings) {
+        String imageName = FilenameUtils.getBaseName(searchedImageFilePath);
+        return FramePipeline.start(settings,
+                index -> {
+                    countRetry(index, Collections.singletonList(searchedImageFilePath));
+                    return captureScene(imageName + "_screenshot_" + index, screenshotBaseDirectory, settings);
+                },
+                scene -> {
+                    try {
+                        if (findImage(searchedImageFilePath, scene, settings) != null) {
+                            return null;
+                        }
+                    } finally {
+                        scene.release();
+                    }
+                    log("Image has successfully disappeared from screen.");
+                    return Boolean.TRUE;
+                },
+                Boolean.FALSE);
+    }
+
+    private ImageSearchResult findImageLoop(String searchedImagePath, String screenshotBaseDirectory, ImageRecognitionSettings settings) throws Exception {
+        long start_time = System.nanoTime();
+        ImageSearchResult imageSearchResult = new ImageSearchResult();
+        String imageName = FilenameUtils.getBaseName(searchedImagePath);
+        FrameChangeDetector frameChangeDetector = new FrameChangeDetector(settings.getUnchangedFrameTolerance());
+        PollingScheduler scheduler = new PollingScheduler(settings);
+        while (scheduler.nextPoll()) {
+            countRetry(scheduler.getPolls() - 1, Collections.singletonList(searchedImagePath));
+            String screenshotName = imageName + "_screenshot_"+(scheduler.getPolls() - 1);
+            Scene scene = captureScene(screenshotName, screenshotBaseDirectory, settings);
+            boolean unchanged = frameChangeDetector.isUnchanged(scene);
+            // The image was not found on the last searched frame, so it is not on an identical one either
+            if (unchanged && settings.isSkipUnchangedFrames()) {
+                scene.release();
+                scheduler.waitForNextPoll(false);
+                continue;
+            }
+            frameChangeDetector.markSearched(scene);
+            ImageLocation imageLocation;
+            try {
+                imageLocation = findImage(searchedImagePath, scene, settings);
+            } catch (Exception e) {
+                scene.release();
+                throw e;
+            }
+            if (imageLocation!=null){
+                long end_time = System.nanoTime();
+                log("==> Find image took: " + String.format("%.3f", (end_time - start_time) / 1e9) + " secs.");
+                imageSearchResult.setImageLocation(imageLocation);
+                imageSearchResult.setScreenshotFile(scene.getFile());
+                imageSearchResult.setScene(scene);
+                return imageSearchResult;
+            }
+            scene.release();
+            scheduler.waitForNextPoll(!unchanged);
+        }
+        log("==> Image not found");
+        return imageSearchResult;
+    }
+
+    /**
+     * Searches for several reference images on the screen. Each poll captures one screenshot
+     * and matches all of the reference images against it.
+     *
+     * @param searchedImageFilePaths Paths to the reference image files to be searched
+     * @param screenshotBaseDirectory Path to the directory in which the screenshots should be stored
+     * @param settings Image recognition related settings, cropping is not done for batch searches
+     * @param mode MatchMode.ANY_OF to stop when any of the images is found, MatchMode.ALL_OF to wait until all of them are found on the same screen
+     * @return ImageSearchResult for each reference image in the given order, from the last screenshot that was searched
+     * @throws Exception
+     */
+    public Map<String, ImageSearchResult> findImagesOnScreen(List<String> searchedImageFilePaths, String screenshotBaseDirectory, ImageRecognitionSettings settings, MatchMode mode) throws Exception {
+        long start_time = System.nanoTime();
+        Map<String, ImageSearchResult> results = new LinkedHashMap<>();
+        String imageName = searchedImageFilePaths.isEmpty() ? "batch" : FilenameUtils.getBaseName(searchedImageFilePaths.get(0));
+        FrameChangeDetector frameChangeDetector = new FrameChangeDetector(settings.getUnchangedFrameTolerance());
+        PollingScheduler scheduler = new PollingScheduler(settings);
+        while (scheduler.nextPoll()) {
+            countRetry(scheduler.getPolls() - 1, searchedImageFilePaths);
+            String screenshotName = imageName + "_batch_screenshot_" + (scheduler.getPolls() - 1);
+            Scene scene = captureScene(screenshotName, screenshotBaseDirectory, settings);
+            boolean unchanged = frameChangeDetector.isUnchanged(scene);
+            // The last searched frame did not satisfy the match mode, so an identical one does not either
+            if (unchanged && settings.isSkipUnchangedFrames()) {
+                scene.release();
+                scheduler.waitForNextPoll(false);
+                continue;
+            }
+            frameChangeDetector.markSearched(scene);
+            Map<String, ImageLocation> locations;
+            try {
+                locations = findImages(searchedImageFilePaths, scene, settings, mode);
+            } catch (Exception e) {
+                scene.release();
+                throw e;
+            }
+            int foundCount = 0;
+            for (ImageSearchResult previous : results.values()) {
+                previous.close();
+            }
+            results.clear();
+            for (Map.Entry<String, ImageLocation> entry : locations.entrySet()) {
+                ImageSearchResult imageSearchResult = new ImageSearchResult();
+                if (entry.getValue() != null) {
+                    imageSearchResult.setImageLocation(entry.getValue());
+                    imageSearchResult.setScreenshotFile(scene.getFile());
+                    // Every found result holds the scene, so that each can be closed on its own
+                    imageSearchResult.setScene(scene.retain());
+                    foundCount++;
+                }
+                results.put(entry.getKey(), imageSearchResult);
+            }
+            scene.release();
+            if (mode.isSatisfied(foundCount, locations.size())) {
+                long end_time = System.nanoTime();
+                log("==> Find images took: " + String.format("%.3f", (end_time - start_time) / 1e9) + " secs, found " + foundCount + " of " + locations.size() + ".");
+                return results;
+            }
+            scheduler.waitForNextPoll(!unchanged);
+        }
+        log("==> Images not found");
+        return results;
+    }
+
+    /**
+     * Captures the current screen straight into memory, without writing a screenshot file.
+     *
+     * @return The captured frame
+     * @throws Exception
+     */
+    public Mat captureScreen() throws Exception {
+        long start_time = System.nanoTime();
+        Mat frame = getFrameSource().captureFrame();
+        long end_time = System.nanoTime();
+        metrics.recordTime(RecognitionStage.CAPTURE, null, end_time - start_time);
+        log("==> Capturing the screen took " + String.format("%.1f", (end_time - start_time) / 1e6) + " ms.");
+        return frame;
+    }
+
+    private FrameSource getFrameSource() throws Exception {
+        FrameSource source = frameSource;
+        if (source != null) {
+            return source;
+        }
+        synchronized (this) {
+            if (frameSource == null) {
+                if (platform.equals(PlatformType.IOS)) {
+                    frameSource = new IdeviceFrameSource(deviceId != null ? deviceId : ScreenGeometryCache.getIosUdid(), getTempDirectory());
+                } else if (platform.equals(PlatformType.ANDROID)) {
+                    frameSource = new AdbFrameSource("adb", deviceId);
+                } else {
+                    throw new Exception("Invalid platformType: "+platform);
+                }
+            }
+            return frameSource;
+        }
+    }
+
+    private void countRetry(int poll, List<String> searchedImageFilePaths) {
+        if (poll > 0) {
+            for (String searchedImageFilePath : searchedImageFilePaths) {
+                metrics.increment(RecognitionCounter.RETRY, QueryImageCache.key(searchedImageFilePath));
+            }
+        }
+    }
+
+    /**
+     * Captures the screen as a scene held by the caller, who releases it unless it is handed
+     * over in a search result.
+     */
+    private Scene captureScene(String screenshotName, String screenshotBaseDirectory, ImageRecognitionSettings settings) throws Exception {
+        Mat frame = captureScreen();
+        String screenshotFile = null;
+        if (settings.isSaveScreenshots()) {
+            screenshotFile = screenshotBaseDirectory + screenshotName + ".png";
+        }
+        Scene scene = imageFinder.createScene(screenshotFile, frame);
+        if (screenshotFile != null) {
+            imageFinder.getScreenshotWriter().write(screenshotFile, scene);
+        }
+        return scene;
+    }
+
+    /**
+     * Waits until all screenshot and annotation files queued so far have been written.
+     *
+     * @throws InterruptedException
+     */
+    public void flushScreenshots() throws InterruptedException {
+        imageFinder.getScreenshotWriter().flush();
+    }
+
+    public String takeScreenshot(String screenshotName, String screenshotBaseDirectory) throws Exception {
+        long start_time = System.nanoTime();
+
+        String screenshotFile = screenshotBaseDirectory + screenshotName + ".png";
+        Mat frame = captureScreen();
+        try {
+            imageFinder.getScreenshotWriter().writeAndWait(screenshotFile, frame);
+        } finally {
+            frame.release();
+        }
+
+        long end_time = System.nanoTime();
+        log("==> Taking a screenshot took " + String.format("%.3f", (end_time - start_time) / 1e9) + " secs.");
+        return screenshotFile;
+    }
+
+    /**
+     * Forgets the cached screen size of the device. It is resolved again on the next search, as
+     * it is after a change of screen orientation.
+     */
+    public void refreshScreenGeometry() {
+        screenGeometryCache.refresh();
+    }
+
+    ScreenGeometryCache getScreenGeometryCache() {
+        return screenGeometryCache;
+    }
+
+    /**
+     * Waits for pending screenshot writes, stops the screenshot writer thread and removes the
+     * temporary directory of the session. When interrupted, stops waiting and keeps the
+     * interrupt flag set, the writes still complete on the writer thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushScreenshots();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsImageFinder) {
+            imageFinder.getScreenshotWriter().shutdown();
+        }
+        if (tempDirectory != null) {
+            FileUtils.deleteQuietly(tempDirectory);
+            tempDirectory = null;
+        }
+    }
+}
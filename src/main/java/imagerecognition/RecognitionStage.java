@@ -0,0 +1,27 @@
+package imagerecognition;
+
+/**
+ * Steps of a search that are timed and reported to the MetricsListener.
+ */
+public enum RecognitionStage {
+    /** Grabbing a frame from the device. */
+    CAPTURE,
+    /** Decoding a screenshot file. */
+    DECODE,
+    /** Downscaling the screenshot to the working resolution. */
+    RESIZE,
+    /** Extracting AKAZE features from the scene or a query image. */
+    EXTRACTION,
+    /** Descriptor matching, ratio test and RANSAC inliers, or template matching. */
+    MATCHING,
+    /** Computing the homography and projecting the query image corners. */
+    HOMOGRAPHY,
+    /** Shape and size ratio checks of the found corners. */
+    VALIDATION,
+    /** Looking up the screen size of the device. */
+    SCREEN_SIZE,
+    /** Cropping the found image out of the screenshot. */
+    CROP,
+    /** Reading text with tesseract. */
+    OCR
+}
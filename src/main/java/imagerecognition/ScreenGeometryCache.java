@@ -0,0 +1,214 @@
+package imagerecognition;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.opencv.core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.PlatformType;
+import objects.Scene;
+
+/**
+ * Screen sizes of the devices in use, resolved with adb or ideviceinfo once per device and kept
+ * until the orientation of the screenshots changes or refresh is called. The iOS screen size
+ * table is read from ios-screen-size.properties only once.
+ */
+public class ScreenGeometryCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScreenGeometryCache.class);
+
+    private static final String IOS_SCREEN_SIZE_FILE = "ios-screen-size.properties";
+
+    private final Map<String, CachedSize> sizes = new HashMap<>();
+    private volatile MetricsListener metrics = MetricsListener.NONE;
+
+    /**
+     * Screen size of the device the scene was captured from, in the orientation of the scene.
+     *
+     * @param deviceId Serial of the Android device or UDID of the iOS device, or null for the
+     * only connected Android device or the iOS device in the UDID environment variable
+     */
+    public synchronized Size getScreenSize(PlatformType platform, String deviceId, Scene scene) throws Exception {
+        String device = resolveDevice(platform, deviceId);
+        String key = platform + ":" + device;
+        boolean landscape = scene.getWidth() > scene.getHeight();
+        CachedSize cached = sizes.get(key);
+        if (cached != null && cached.landscape != landscape) {
+            logger.info("Screen orientation has changed, resolving the screen size again.");
+            cached = null;
+        }
+        if (cached != null) {
+            metrics.increment(RecognitionCounter.SCREEN_SIZE_CACHE_HIT, null);
+        } else {
+            metrics.increment(RecognitionCounter.SCREEN_SIZE_CACHE_MISS, null);
+            Size size = platform.equals(PlatformType.IOS) ? getIosScreenSize(device, scene) : getAndroidScreenSize(deviceId);
+            cached = new CachedSize(size, landscape);
+            sizes.put(key, cached);
+        }
+        return new Size(cached.size.width, cached.size.height);
+    }
+
+    /**
+     * Forgets the screen sizes of all devices, for example after changing the resolution of a
+     * device.
+     */
+    public synchronized void refresh() {
+        sizes.clear();
+    }
+
+    void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the screen size of a device instead of resolving it, for benchmarks and other runs
+     * without a connected device. Kept until refresh or a change of orientation.
+     */
+    synchronized void setScreenSize(PlatformType platform, String deviceId, Size size) throws Exception {
+        String key = platform + ":" + resolveDevice(platform, deviceId);
+        sizes.put(key, new CachedSize(new Size(size.width, size.height), size.width > size.height));
+    }
+
+    private static String resolveDevice(PlatformType platform, String deviceId) throws Exception {
+        if (deviceId != null) {
+            return deviceId;
+        }
+        return platform.equals(PlatformType.IOS) ? getIosUdid() : System.getenv("ANDROID_SERIAL");
+    }
+
+    private static Size getIosScreenSize(String udid, Scene scene) throws Exception {
+        String productType = getIosProductType(udid);
+        try {
+            return getIosScreenSizePoints(productType);
+        } catch(UnsupportedOperationException e){
+            logger.warn("Current device not included in the ios-screen-size.properties-file. Assuming x3 Retina display.");
+            logger.warn("Add the devices screen size information to the ios-screen-size.properties-file");
+            int screenHeight = scene.getHeight()/3;
+            int screenWidth = scene.getWidth()/3;
+            return new Size(screenWidth, screenHeight);
+        }
+    }
+
+    private static String getIosProductType(String udid) throws IOException, InterruptedException, Exception {
+        String[] cmd = new String[]{"ideviceinfo", "-u", udid, "--key", "ProductType"};
+        Process p = Runtime.getRuntime().exec(cmd);
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+
+        int exitVal = p.waitFor();
+        if (exitVal != 0) {
+            throw new Exception("ideviceinfo process exited with value: " + exitVal);
+        }
+        return in.readLine();
+    }
+
+    static String getIosUdid() throws Exception {
+        String udid = System.getenv("UDID");
+        if (udid==null){
+            throw new Exception("$UDID was null, set UDID environment variable and try again");
+        }
+        return udid;
+    }
+
+    private static Size getIosScreenSizePoints(String productType) throws UnsupportedOperationException, Exception {
+        IosScreenSizes table = IosScreenSizes.get();
+        if (table.invalid.contains(productType)) {
+            throw new Exception("Invalid ios-screen-size.properties file syntax for line: " + productType);
+        }
+        Size size = table.sizes.get(productType);
+        if (size == null){
+            throw new UnsupportedOperationException("ios-screen-size.properties is missing entry for: " + productType);
+        }
+        return new Size(size.width, size.height);
+    }
+
+    private static Size getAndroidScreenSize(String serial) throws IOException, InterruptedException {
+        String adb = "adb";
+        String[] adbCommand = serial != null ? new String[]{adb, "-s", serial, "shell", "dumpsys", "window"} : new String[]{adb, "shell", "dumpsys", "window"};
+        ProcessBuilder p = new ProcessBuilder(adbCommand);
+        Process proc = p.start();
+        InputStream stdin = proc.getInputStream();
+        InputStreamReader isr = new InputStreamReader(stdin);
+        BufferedReader br = new BufferedReader(isr);
+        String line;
+        String[] size = null;
+        while ((line = br.readLine()) != null) {
+            if (!line.contains("OriginalmUnrestrictedScreen")) { //we do this check for devices with android 5.x+ The adb command returns an extra line with the values 0x0 which must be filtered out.
+                if (line.contains("mUnrestrictedScreen")) {
+                    String[] tmp = line.split("\\) ");
+                    size = tmp[1].split("x");
+                }
+            }
+        }
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        return new Size(width, height);
+    }
+
+    private static final class CachedSize {
+        private final Size size;
+        private final boolean landscape;
+
+        private CachedSize(Size size, boolean landscape) {
+            this.size = size;
+            this.landscape = landscape;
+        }
+    }
+
+    /**
+     * Screen sizes in points per iOS product type, parsed from ios-screen-size.properties on
+     * first use. Lines that cannot be parsed are remembered so that looking them up still fails.
+     */
+    private static final class IosScreenSizes {
+        private static IosScreenSizes instance;
+
+        private final Map<String, Size> sizes;
+        private final Set<String> invalid;
+
+        private IosScreenSizes(Map<String, Size> sizes, Set<String> invalid) {
+            this.sizes = Collections.unmodifiableMap(sizes);
+            this.invalid = Collections.unmodifiableSet(invalid);
+        }
+
+        private static synchronized IosScreenSizes get() throws Exception {
+            if (instance == null) {
+                instance = load();
+            }
+            return instance;
+        }
+
+        private static IosScreenSizes load() throws Exception {
+            Properties properties = new Properties();
+            try (InputStream input = ScreenGeometryCache.class.getClassLoader().getResourceAsStream(IOS_SCREEN_SIZE_FILE)) {
+                if (input == null) {
+                    throw new Exception("ios-screen-size.properties does not exist");
+                }
+                properties.load(input);
+            }
+            Map<String, Size> sizes = new HashMap<>();
+            Set<String> invalid = new HashSet<>();
+            for (String productType : properties.stringPropertyNames()) {
+                String screenDimensions[] = properties.getProperty(productType).split(" x ");
+                if (screenDimensions.length != 2) {
+                    invalid.add(productType);
+                    continue;
+                }
+                try {
+                    sizes.put(productType, new Size(Integer.parseInt(screenDimensions[0].trim()), Integer.parseInt(screenDimensions[1].trim())));
+                } catch (NumberFormatException e) {
+                    invalid.add(productType);
+                }
+            }
+            return new IosScreenSizes(sizes, invalid);
+        }
+    }
+}
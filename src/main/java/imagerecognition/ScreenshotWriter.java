@@ -0,0 +1,256 @@
+package imagerecognition;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.ArtifactDropPolicy;
+import objects.Scene;
+
+/**
+ * Encodes and writes screenshots on a background thread so that recognition does not wait
+ * for PNG compression. Writes are done in submission order, so a later write of the same
+ * file always wins.
+ *
+ * Debug artifacts are also rendered on the writer thread. Only a limited number of them may
+ * wait to be written, extra ones are dropped instead of making the caller wait.
+ */
+public class ScreenshotWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScreenshotWriter.class);
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "screenshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Last queued write of each file, to wait for a single file
+    private final Map<String, WriteTask> pendingFiles = new HashMap<>();
+    private int pendingArtifacts;
+    private long droppedArtifacts;
+
+    /**
+     * Queues an image to be written. The image must not be modified afterwards.
+     *
+     * @param file Path of the file to write
+     * @param image Image to encode
+     * @return Future that completes when the file has been written
+     */
+    public Future<Boolean> write(String file, Mat image) {
+        return submit(new WriteTask(file, () -> encode(file, image), false, null));
+    }
+
+    /**
+     * Queues the full resolution image of a scene to be written. The scene is retained until
+     * the file has been written, so the caller may release it right away.
+     */
+    public Future<Boolean> write(String file, Scene scene) {
+        return submit(new WriteTask(file, () -> encode(file, scene.getImage()), false, scene.retain()));
+    }
+
+    /**
+     * Queues a region of the full resolution image of a scene to be written, retaining the
+     * scene until the file has been written.
+     */
+    public Future<Boolean> write(String file, Scene scene, Rect region) {
+        return submit(new WriteTask(file, () -> {
+            Mat image = scene.getImage().submat(region);
+            try {
+                return encode(file, image);
+            } finally {
+                image.release();
+            }
+        }, false, scene.retain()));
+    }
+
+    private Future<Boolean> submit(WriteTask task) {
+        synchronized (this) {
+            task.previous = pendingFiles.put(task.path, task);
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Queues a debug artifact that is rendered and written on the writer thread. Never waits:
+     * when the maximum number of artifacts is already waiting, the drop policy decides whether
+     * the oldest waiting one or this one is skipped.
+     *
+     * The scene is retained until the artifact has been written or dropped. Images returned by
+     * the renderer other than those of the scene are released after writing.
+     *
+     * @param file Path of the file to write
+     * @param scene Scene the artifact is rendered from
+     * @param renderer Renders the image, called on the writer thread
+     * @param maxPending Number of artifacts that may wait to be written
+     * @param dropPolicy What to drop when too many artifacts are waiting
+     * @return True if the artifact was queued, false if it was dropped
+     */
+    public boolean writeArtifact(String file, Scene scene, Function<Scene, Mat> renderer, int maxPending, ArtifactDropPolicy dropPolicy) {
+        WriteTask task;
+        synchronized (this) {
+            if (pendingArtifacts >= Math.max(1, maxPending)) {
+                if (dropPolicy == ArtifactDropPolicy.DROP_NEWEST || !dropOldestArtifact()) {
+                    droppedArtifacts++;
+                    logger.debug("Too many debug artifacts waiting, dropped " + file);
+                    return false;
+                }
+            }
+            task = new WriteTask(file, () -> {
+                Mat image = renderer.apply(scene);
+                try {
+                    return encode(file, image);
+                } finally {
+                    if (image != scene.getResizedImage() && image != scene.getImage()) {
+                        image.release();
+                    }
+                }
+            }, true, scene.retain());
+            pendingArtifacts++;
+            task.previous = pendingFiles.put(task.path, task);
+        }
+        executor.execute(task);
+        return true;
+    }
+
+    private boolean dropOldestArtifact() {
+        for (Runnable queued : executor.getQueue()) {
+            if (queued instanceof WriteTask && ((WriteTask) queued).artifact && executor.remove(queued)) {
+                WriteTask dropped = (WriteTask) queued;
+                dropped.cancel(false);
+                pendingArtifacts--;
+                droppedArtifacts++;
+                logger.debug("Too many debug artifacts waiting, dropped " + dropped.path);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes an image after all previously queued writes and waits for it to complete.
+     */
+    public boolean writeAndWait(String file, Mat image) throws InterruptedException {
+        try {
+            return write(file, image).get();
+        } catch (ExecutionException e) {
+            logger.error("Screenshot could not be written: " + file, e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the queued writes of one file have completed, without waiting for the
+     * other files.
+     */
+    public void awaitFile(String file) throws InterruptedException {
+        WriteTask task;
+        synchronized (this) {
+            task = pendingFiles.get(new File(file).getAbsolutePath());
+        }
+        if (task == null) {
+            return;
+        }
+        try {
+            task.get();
+        } catch (ExecutionException | CancellationException e) {
+            // Reported by the task, the file is as complete as it gets
+        }
+    }
+
+    public synchronized long getDroppedArtifacts() {
+        return droppedArtifacts;
+    }
+
+    /**
+     * Writes the queued images and then stops the writer thread. No images can be queued after
+     * this.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until every queued write has completed.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            executor.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class WriteTask extends FutureTask<Boolean> {
+        private final String path;
+        private final boolean artifact;
+        private final Scene scene;
+        // Earlier write of the same file that is still queued, waited for instead if this one is dropped
+        private WriteTask previous;
+
+        private WriteTask(String file, Callable<Boolean> write, boolean artifact, Scene scene) {
+            super(write);
+            this.path = new File(file).getAbsolutePath();
+            this.artifact = artifact;
+            this.scene = scene;
+        }
+
+        @Override
+        public void run() {
+            if (artifact) {
+                synchronized (ScreenshotWriter.this) {
+                    pendingArtifacts--;
+                }
+            }
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            synchronized (ScreenshotWriter.this) {
+                if (isCancelled() && previous != null && !previous.isDone()) {
+                    pendingFiles.replace(path, this, previous);
+                } else {
+                    pendingFiles.remove(path, this);
+                }
+                previous = null;
+            }
+            if (scene != null) {
+                scene.release();
+            }
+        }
+    }
+
+    private static boolean encode(String file, Mat image) {
+        File parent = new File(file).getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        boolean written;
+        try {
+            written = Imgcodecs.imwrite(file, image);
+        } catch (RuntimeException e) {
+            logger.error("Screenshot could not be written: " + file, e);
+            return false;
+        }
+        if (!written) {
+            logger.error("Screenshot could not be written: " + file);
+        }
+        return written;
+    }
+}
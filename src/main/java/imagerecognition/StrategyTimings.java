@@ -0,0 +1,69 @@
+package imagerecognition;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import objects.RecognitionStrategy;
+
+/**
+ * Attempts, matches and time spent per recognition strategy, to see how much template
+ * matching saves compared to feature matching.
+ */
+public class StrategyTimings {
+
+    private final Map<RecognitionStrategy, long[]> timings = new EnumMap<>(RecognitionStrategy.class);
+
+    public StrategyTimings() {
+        for (RecognitionStrategy strategy : RecognitionStrategy.values()) {
+            timings.put(strategy, new long[3]);
+        }
+    }
+
+    synchronized void record(RecognitionStrategy strategy, boolean matched, long nanos) {
+        long[] values = timings.get(strategy);
+        values[0]++;
+        if (matched) {
+            values[1]++;
+        }
+        values[2] += nanos;
+    }
+
+    public synchronized long getAttempts(RecognitionStrategy strategy) {
+        return timings.get(strategy)[0];
+    }
+
+    public synchronized long getMatches(RecognitionStrategy strategy) {
+        return timings.get(strategy)[1];
+    }
+
+    public synchronized long getTotalNanos(RecognitionStrategy strategy) {
+        return timings.get(strategy)[2];
+    }
+
+    public synchronized double getAverageMillis(RecognitionStrategy strategy) {
+        long attempts = timings.get(strategy)[0];
+        return attempts == 0 ? 0 : timings.get(strategy)[2] / 1e6 / attempts;
+    }
+
+    public synchronized void reset() {
+        for (long[] values : timings.values()) {
+            values[0] = 0;
+            values[1] = 0;
+            values[2] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (RecognitionStrategy strategy : RecognitionStrategy.values()) {
+            long[] values = timings.get(strategy);
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(strategy).append(": ").append(values[1]).append('/').append(values[0])
+                    .append(" matched, ").append(String.format("%.1f", getAverageMillis(strategy))).append(" ms avg");
+        }
+        return builder.toString();
+    }
+}
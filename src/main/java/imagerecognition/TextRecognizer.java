@@ -0,0 +1,234 @@
+package imagerecognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jna.Pointer;
+
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.TessAPI1;
+import objects.TextRecognitionSettings;
+
+/**
+ * Reads text with tesseract in-process through tess4j. Initialising tesseract for a language
+ * takes hundreds of milliseconds and an instance can only be used by one thread at a time, so
+ * initialised instances are kept per language and reused by later calls. The page segmentation
+ * mode and character whitelist are set for every call.
+ *
+ * Texts read are kept in a TextResultCache, so reading identical pixels with the same settings
+ * again returns the earlier text without running tesseract.
+ */
+public class TextRecognizer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextRecognizer.class);
+
+    public static final int DEFAULT_MAX_IDLE_PER_LANGUAGE = 4;
+    private static final String WHITELIST_VARIABLE = "tessedit_char_whitelist";
+
+    private final Map<String, ArrayDeque<Engine>> idleEngines = new HashMap<>();
+    private final TextResultCache cache = new TextResultCache();
+    private final String dataPath;
+    private final int maxIdlePerLanguage;
+    private volatile MetricsListener metrics = MetricsListener.NONE;
+    private boolean closed;
+
+    public TextRecognizer() {
+        this(null, DEFAULT_MAX_IDLE_PER_LANGUAGE);
+    }
+
+    /**
+     * @param dataPath Directory that contains the tessdata directory, or null to use the
+     * TESSDATA_PREFIX environment variable as the tesseract command does
+     * @param maxIdlePerLanguage Number of initialised instances kept per language, more are
+     * created when more threads read text at the same time
+     */
+    public TextRecognizer(String dataPath, int maxIdlePerLanguage) {
+        this.dataPath = dataPath;
+        this.maxIdlePerLanguage = maxIdlePerLanguage;
+    }
+
+    void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+        cache.setMetricsListener(metrics);
+    }
+
+    public TextResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Reads the text of an image.
+     *
+     * @param image 8-bit image, in color or grayscale
+     * @return The text without surrounding whitespace, lines separated by line breaks
+     * @throws IOException If tesseract cannot be loaded or has no trained data for the language
+     */
+    public String getText(Mat image, TextRecognitionSettings settings) throws IOException {
+        return getText(image, null, settings);
+    }
+
+    /**
+     * Reads the text of a region of an image, without copying the region out first.
+     *
+     * @param region Part of the image to read, or null for the whole image
+     */
+    public String getText(Mat image, Rect region, TextRecognitionSettings settings) throws IOException {
+        Mat area = region != null ? image.submat(region) : image;
+        try {
+            TextResultCache.Key key = cache.key(area, settings);
+            if (key != null) {
+                String cached = cache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            String text = read(area, settings);
+            if (key != null) {
+                cache.put(key, text);
+            }
+            return text;
+        } finally {
+            if (area != image) {
+                area.release();
+            }
+        }
+    }
+
+    private String read(Mat image, TextRecognitionSettings settings) throws IOException {
+        long start = System.nanoTime();
+        Engine engine = borrow(settings.getLanguage());
+        boolean reusable = false;
+        try {
+            String text = engine.read(image, settings);
+            reusable = true;
+            return text;
+        } finally {
+            giveBack(engine, reusable);
+            metrics.recordTime(RecognitionStage.OCR, null, System.nanoTime() - start);
+        }
+    }
+
+    private Engine borrow(String language) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Text recognizer has been closed");
+            }
+            ArrayDeque<Engine> idle = idleEngines.get(language);
+            if (idle != null && !idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+        long start = System.nanoTime();
+        TessBaseAPI api;
+        try {
+            api = TessAPI1.TessBaseAPICreate();
+        } catch (LinkageError e) {
+            throw new IOException("Tesseract library could not be loaded", e);
+        }
+        if (TessAPI1.TessBaseAPIInit3(api, dataPath, language) != 0) {
+            TessAPI1.TessBaseAPIDelete(api);
+            throw new IOException("Tesseract could not be initialised for language " + language
+                    + ", check that its trained data is in " + (dataPath != null ? dataPath : "TESSDATA_PREFIX") + "/tessdata");
+        }
+        logger.info("Initialising tesseract for " + language + " took " + String.format("%.1f", (System.nanoTime() - start) / 1e6) + " ms.");
+        return new Engine(api, language);
+    }
+
+    private void giveBack(Engine engine, boolean reusable) {
+        synchronized (this) {
+            if (!closed && reusable) {
+                ArrayDeque<Engine> idle = idleEngines.computeIfAbsent(engine.language, l -> new ArrayDeque<>());
+                if (idle.size() < maxIdlePerLanguage) {
+                    idle.push(engine);
+                    return;
+                }
+            }
+        }
+        engine.end();
+    }
+
+    /**
+     * Frees the idle tesseract instances. Calls that are still reading free theirs when done.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (ArrayDeque<Engine> idle : idleEngines.values()) {
+            for (Engine engine : idle) {
+                engine.end();
+            }
+        }
+        idleEngines.clear();
+    }
+
+    /**
+     * One initialised tesseract instance and the pixel buffer it reads from.
+     */
+    private static final class Engine {
+        private final TessBaseAPI api;
+        private final String language;
+        private ByteBuffer pixels;
+
+        private Engine(TessBaseAPI api, String language) {
+            this.api = api;
+            this.language = language;
+        }
+
+        private String read(Mat image, TextRecognitionSettings settings) throws IOException {
+            if (image.depth() != CvType.CV_8U) {
+                throw new IllegalArgumentException("Text can only be read from 8-bit images, got type " + image.type());
+            }
+            int width = image.cols();
+            int height = image.rows();
+            if (width == 0 || height == 0) {
+                return "";
+            }
+            Mat gray = AkazeMatcher.toGray(image);
+            try {
+                byte[] bytes = new byte[width * height];
+                gray.get(0, 0, bytes);
+                if (pixels == null || pixels.capacity() < bytes.length) {
+                    pixels = ByteBuffer.allocateDirect(bytes.length);
+                }
+                pixels.clear();
+                pixels.put(bytes);
+                pixels.flip();
+            } finally {
+                if (gray != image) {
+                    gray.release();
+                }
+            }
+
+            String whitelist = settings.getCharacterWhitelist();
+            TessAPI1.TessBaseAPISetPageSegMode(api, settings.getPageSegmentationMode().getValue());
+            TessAPI1.TessBaseAPISetVariable(api, WHITELIST_VARIABLE, whitelist != null ? whitelist : "");
+            TessAPI1.TessBaseAPISetImage(api, pixels, width, height, 1, width);
+            Pointer text = TessAPI1.TessBaseAPIGetUTF8Text(api);
+            try {
+                if (text == null) {
+                    throw new IOException("Tesseract could not read the image");
+                }
+                return text.getString(0, "UTF-8").trim();
+            } finally {
+                if (text != null) {
+                    TessAPI1.TessDeleteText(text);
+                }
+                TessAPI1.TessBaseAPIClear(api);
+            }
+        }
+
+        private void end() {
+            TessAPI1.TessBaseAPIEnd(api);
+            TessAPI1.TessBaseAPIDelete(api);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package imagerecognition;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import objects.PageSegmentationMode;
+import objects.TextRecognitionSettings;
+
+/**
+ * Remembers the text read from images so that reading the same pixels again, such as an
+ * unchanged score or button caption, costs a hash instead of a tesseract pass.
+ *
+ * Entries are keyed by a 64-bit hash of the pixels together with the image size and type and
+ * the language, page segmentation mode and character whitelist of the read. When the number of
+ * entries goes over the limit the least recently used entries are evicted.
+ */
+public class TextResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextResultCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+    private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private volatile MetricsListener metrics = MetricsListener.NONE;
+
+    public TextResultCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries Number of texts kept, 0 disables the cache
+     */
+    public TextResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Key of the image read with the given settings, or null when the cache is disabled.
+     */
+    Key key(Mat image, TextRecognitionSettings settings) {
+        synchronized (this) {
+            if (maxEntries <= 0) {
+                return null;
+            }
+        }
+        return new Key(hash(image), image.cols(), image.rows(), image.type(),
+                settings.getLanguage(), settings.getPageSegmentationMode(), settings.getCharacterWhitelist());
+    }
+
+    /**
+     * @return The text read earlier for the key, or null on a miss
+     */
+    String get(Key key) {
+        String text;
+        synchronized (this) {
+            text = entries.get(key);
+            if (text != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        metrics.increment(text != null ? RecognitionCounter.OCR_CACHE_HIT : RecognitionCounter.OCR_CACHE_MISS, null);
+        return text;
+    }
+
+    synchronized void put(Key key, String text) {
+        entries.put(key, text);
+        evictToLimit();
+    }
+
+    private void evictToLimit() {
+        Iterator<Map.Entry<Key, String>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            String eldest = iterator.next().getValue();
+            iterator.remove();
+            evictions++;
+            logger.debug("Evicted text from cache: " + eldest);
+        }
+    }
+
+    /**
+     * Hashes the pixels of an image, which may be a region of a larger one, eight bytes at a time.
+     */
+    static long hash(Mat image) {
+        byte[] pixels = new byte[(int) (image.total() * image.elemSize())];
+        if (pixels.length > 0) {
+            image.get(0, 0, pixels);
+        }
+        LongBuffer words = ByteBuffer.wrap(pixels).asLongBuffer();
+        long hash = SEED ^ pixels.length;
+        while (words.hasRemaining()) {
+            hash = mix(hash ^ words.get());
+        }
+        for (int i = words.capacity() * 8; i < pixels.length; i++) {
+            hash = mix(hash ^ pixels[i]);
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value *= MULTIPLIER;
+        return value ^ (value >>> 29);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evictToLimit();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Share of lookups that were answered from the cache, 0 before the first lookup.
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    static final class Key {
+        private final long pixelHash;
+        private final int width;
+        private final int height;
+        private final int type;
+        private final String language;
+        private final PageSegmentationMode pageSegmentationMode;
+        private final String characterWhitelist;
+
+        private Key(long pixelHash, int width, int height, int type, String language,
+                PageSegmentationMode pageSegmentationMode, String characterWhitelist) {
+            this.pixelHash = pixelHash;
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.language = language;
+            this.pageSegmentationMode = pageSegmentationMode;
+            this.characterWhitelist = characterWhitelist;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return pixelHash == key.pixelHash && width == key.width && height == key.height && type == key.type
+                    && Objects.equals(language, key.language) && pageSegmentationMode == key.pageSegmentationMode
+                    && Objects.equals(characterWhitelist, key.characterWhitelist);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pixelHash, width, height, type, language, pageSegmentationMode, characterWhitelist);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package objects;
+
+public enum ArtifactDropPolicy {
+    /** The oldest debug artifact still waiting to be written is dropped to make room. */
+    DROP_OLDEST,
+    /** The new debug artifact is dropped and the waiting ones are kept. */
+    DROP_NEWEST
+}
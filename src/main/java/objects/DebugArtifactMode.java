@@ -0,0 +1,13 @@
+package objects;
+
+public enum DebugArtifactMode {
+    /** No annotated scene is written. */
+    OFF,
+    /**
+     * The annotated scene is written only when the search did not find what it was looking
+     * for, showing any candidates that were rejected.
+     */
+    ON_FAILURE,
+    /** The annotated scene is written after every search that has something to draw. */
+    ALWAYS
+}
@@ -0,0 +1,10 @@
+package objects;
+
+public enum HomographyMethod {
+    /** Least squares fit of all matches, as many outliers as there are pull it off. */
+    LEAST_SQUARES,
+    /** Random sample consensus, matches further than the reprojection threshold are outliers. */
+    RANSAC,
+    /** Least median of squares, needs no threshold but at least half of the matches to be inliers. */
+    LMEDS
+}
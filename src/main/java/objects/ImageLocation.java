@@ -1,12 +1,14 @@
 package objects;
 
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 
 public class ImageLocation {
 
     public ImageLocation(){
         this.scaleFactor=1;
         this.resizeFactor=1;
+        this.recognitionStrategy=RecognitionStrategy.FEATURES;
     }
 
 
@@ -87,6 +89,48 @@ public class ImageLocation {
         return this.resizeFactor;
     }
 
+    /**
+     * Number of feature matches that passed the ratio test and cross-check, 0 for template matches.
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    public void setMatchCount(int matchCount) {
+        this.matchCount = matchCount;
+    }
+
+    /**
+     * Number of feature matches that agree with the homography the location was computed from.
+     */
+    public int getInlierCount() {
+        return inlierCount;
+    }
+
+    public void setInlierCount(int inlierCount) {
+        this.inlierCount = inlierCount;
+    }
+
+    /**
+     * Bounding box of the found image in screenshot pixels, as it lies in the screenshot. Unlike
+     * the corners it is not turned to the original orientation of a rotated screen.
+     */
+    public Rect getSceneBounds() {
+        return sceneBounds;
+    }
+
+    public void setSceneBounds(Rect sceneBounds) {
+        this.sceneBounds = sceneBounds;
+    }
+
+    public RecognitionStrategy getRecognitionStrategy() {
+        return recognitionStrategy;
+    }
+
+    public void setRecognitionStrategy(RecognitionStrategy recognitionStrategy) {
+        this.recognitionStrategy = recognitionStrategy;
+    }
+
 
     private Point topLeft;
     private Point topRight;
@@ -95,4 +139,8 @@ public class ImageLocation {
     private Point center;
     private int scaleFactor;
     private double resizeFactor;
+    private RecognitionStrategy recognitionStrategy;
+    private int matchCount;
+    private int inlierCount;
+    private Rect sceneBounds;
 }
@@ -6,12 +6,64 @@ public class ImageRecognitionSettings {
     private final int DEFAULT_RETRY_WAIT = 0;
     private final double DEFAULT_TOLERANCE = 0.6;
     private final boolean DEFAULT_CROP = false;
+    private final boolean DEFAULT_SAVE_SCREENSHOTS = true;
+    private final boolean DEFAULT_SAVE_CROPPED_IMAGE = false;
+    private final RecognitionMode DEFAULT_RECOGNITION_MODE = RecognitionMode.FEATURES;
+    private final double DEFAULT_TEMPLATE_MATCH_THRESHOLD = 0.9;
+    private final int DEFAULT_PYRAMID_LEVELS = 1;
+    private final double DEFAULT_REFINEMENT_WINDOW_SCALE = 2.0;
+    private final boolean DEFAULT_SEARCH_NEAR_LAST_LOCATION = false;
+    private final double DEFAULT_LAST_LOCATION_PADDING = 1.0;
+    private final boolean DEFAULT_SKIP_UNCHANGED_FRAMES = true;
+    private final double DEFAULT_UNCHANGED_FRAME_TOLERANCE = 2;
+    private final long DEFAULT_TIMEOUT_MILLIS = 0;
+    private final PollingPolicy DEFAULT_POLLING_POLICY = PollingPolicy.FIXED;
+    private final long DEFAULT_BACKOFF_POLL_INTERVAL_MILLIS = 250;
+    private final long DEFAULT_MAX_POLL_INTERVAL_MILLIS = 10000;
+    private final double DEFAULT_POLL_BACKOFF_FACTOR = 2.0;
+    private final double DEFAULT_POLL_JITTER = 0;
+    private final int DEFAULT_MAX_IN_FLIGHT_FRAMES = 2;
+    private final DebugArtifactMode DEFAULT_DEBUG_ARTIFACT_MODE = DebugArtifactMode.ALWAYS;
+    private final int DEFAULT_MAX_PENDING_DEBUG_ARTIFACTS = 4;
+    private final ArtifactDropPolicy DEFAULT_DEBUG_ARTIFACT_DROP_POLICY = ArtifactDropPolicy.DROP_OLDEST;
+    private final double DEFAULT_MATCH_DISTANCE_RATIO = 0.8;
+    private final boolean DEFAULT_CROSS_CHECK_MATCHES = false;
+    private final HomographyMethod DEFAULT_HOMOGRAPHY_METHOD = HomographyMethod.RANSAC;
+    private final double DEFAULT_REPROJECTION_THRESHOLD = 2.5;
+    private final int DEFAULT_MAX_HOMOGRAPHY_ITERATIONS = 2000;
+    private final double DEFAULT_EARLY_EXIT_INLIER_RATIO = 0.9;
 
     public ImageRecognitionSettings(){
         this.retries = DEFAULT_RETRIES;
         this.retryWaitTime = DEFAULT_RETRY_WAIT;
         this.tolerance = DEFAULT_TOLERANCE;
         this.crop = DEFAULT_CROP;
+        this.saveScreenshots = DEFAULT_SAVE_SCREENSHOTS;
+        this.saveCroppedImage = DEFAULT_SAVE_CROPPED_IMAGE;
+        this.recognitionMode = DEFAULT_RECOGNITION_MODE;
+        this.templateMatchThreshold = DEFAULT_TEMPLATE_MATCH_THRESHOLD;
+        this.pyramidLevels = DEFAULT_PYRAMID_LEVELS;
+        this.refinementWindowScale = DEFAULT_REFINEMENT_WINDOW_SCALE;
+        this.searchNearLastLocation = DEFAULT_SEARCH_NEAR_LAST_LOCATION;
+        this.lastLocationPadding = DEFAULT_LAST_LOCATION_PADDING;
+        this.skipUnchangedFrames = DEFAULT_SKIP_UNCHANGED_FRAMES;
+        this.unchangedFrameTolerance = DEFAULT_UNCHANGED_FRAME_TOLERANCE;
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        this.pollingPolicy = DEFAULT_POLLING_POLICY;
+        this.pollIntervalMillis = -1;
+        this.maxPollIntervalMillis = DEFAULT_MAX_POLL_INTERVAL_MILLIS;
+        this.pollBackoffFactor = DEFAULT_POLL_BACKOFF_FACTOR;
+        this.pollJitter = DEFAULT_POLL_JITTER;
+        this.maxInFlightFrames = DEFAULT_MAX_IN_FLIGHT_FRAMES;
+        this.debugArtifactMode = DEFAULT_DEBUG_ARTIFACT_MODE;
+        this.maxPendingDebugArtifacts = DEFAULT_MAX_PENDING_DEBUG_ARTIFACTS;
+        this.debugArtifactDropPolicy = DEFAULT_DEBUG_ARTIFACT_DROP_POLICY;
+        this.matchDistanceRatio = DEFAULT_MATCH_DISTANCE_RATIO;
+        this.crossCheckMatches = DEFAULT_CROSS_CHECK_MATCHES;
+        this.homographyMethod = DEFAULT_HOMOGRAPHY_METHOD;
+        this.reprojectionThreshold = DEFAULT_REPROJECTION_THRESHOLD;
+        this.maxHomographyIterations = DEFAULT_MAX_HOMOGRAPHY_ITERATIONS;
+        this.earlyExitInlierRatio = DEFAULT_EARLY_EXIT_INLIER_RATIO;
     }
 
 
@@ -48,13 +100,417 @@ public class ImageRecognitionSettings {
     }
 
 
+    /**
+     * Sets the found image on the result as a view of the screenshot, see
+     * ImageSearchResult.getCroppedImage. The screenshot file is not modified.
+     */
     public void setCrop(boolean crop) {
         this.crop = crop;
     }
 
 
+    public boolean isSaveCroppedImage() {
+        return saveCroppedImage;
+    }
+
+
+    /**
+     * Also writes the cropped image to a file next to the screenshot, with _cropped added to
+     * its name. Only done when screenshots are saved.
+     */
+    public void setSaveCroppedImage(boolean saveCroppedImage) {
+        this.saveCroppedImage = saveCroppedImage;
+    }
+
+
+    public boolean isSaveScreenshots() {
+        return saveScreenshots;
+    }
+
+
+    /**
+     * Whether captured screenshots are written to the screenshot directory. The files are
+     * written in the background, use ImageRecognition.flushScreenshots() to wait for them.
+     */
+    public void setSaveScreenshots(boolean saveScreenshots) {
+        this.saveScreenshots = saveScreenshots;
+    }
+
+
+    public RecognitionMode getRecognitionMode() {
+        return recognitionMode;
+    }
+
+
+    public void setRecognitionMode(RecognitionMode recognitionMode) {
+        this.recognitionMode = recognitionMode;
+    }
+
+
+    public double getTemplateMatchThreshold() {
+        return templateMatchThreshold;
+    }
+
+
+    /**
+     * Minimum normalized cross-correlation score (0..1) for a template match to be accepted
+     * when the recognition mode is RecognitionMode.TEMPLATE_THEN_FEATURES.
+     */
+    public void setTemplateMatchThreshold(double templateMatchThreshold) {
+        this.templateMatchThreshold = templateMatchThreshold;
+    }
+
+
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+
+    /**
+     * Number of image pyramid levels below the native resolution used for feature matching.
+     * With 1, the default, the whole scene is searched at the working resolution (750 pixels
+     * on the short side). With more, up to pyramidLevels - 1 levels each half as fine as the
+     * working resolution are added, and the whole scene is searched at the coarsest of them
+     * that still shows the query image 48 pixels large. The candidate found there is refined
+     * in a window around it at each finer level up to the working resolution, and up to the
+     * native resolution for query images smaller than 96 pixels at the working resolution.
+     * Such small images are searched again in the whole native resolution screenshot when
+     * they are not found at the working resolution, which can take several times as long as
+     * the search at the working resolution.
+     */
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = pyramidLevels;
+    }
+
+
+    public double getRefinementWindowScale() {
+        return refinementWindowScale;
+    }
+
+
+    /**
+     * Size of the window searched at each finer pyramid level, relative to the bounding box of
+     * the candidate found at the level above.
+     */
+    public void setRefinementWindowScale(double refinementWindowScale) {
+        this.refinementWindowScale = refinementWindowScale;
+    }
+
+
+    public SearchRegion getSearchRegion() {
+        return searchRegion;
+    }
+
+
+    /**
+     * Restricts the search to a part of the screenshot, in the units of found locations (points
+     * on iOS) or as fractions of the screenshot size. Found locations are still in full screen
+     * coordinates. Null, the default, searches the whole screenshot.
+     */
+    public void setSearchRegion(SearchRegion searchRegion) {
+        this.searchRegion = searchRegion;
+    }
+
+
+    public boolean isSearchNearLastLocation() {
+        return searchNearLastLocation;
+    }
+
+
+    /**
+     * Searches first in a window around the location where the image was last found, and in
+     * the whole screenshot only when it is not found there. Off by default, because an image
+     * that also appears elsewhere on the screen is then reported where it was last seen.
+     */
+    public void setSearchNearLastLocation(boolean searchNearLastLocation) {
+        this.searchNearLastLocation = searchNearLastLocation;
+    }
+
+
+    public double getLastLocationPadding() {
+        return lastLocationPadding;
+    }
+
+
+    /**
+     * Padding added on each side of the last location, relative to its width and height.
+     */
+    public void setLastLocationPadding(double lastLocationPadding) {
+        this.lastLocationPadding = lastLocationPadding;
+    }
+
+
+    public boolean isSkipUnchangedFrames() {
+        return skipUnchangedFrames;
+    }
+
+
+    /**
+     * When polling the screen, reuses the previous result instead of searching again when the
+     * new screenshot shows the same screen as the last screenshot that was searched.
+     */
+    public void setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+        this.skipUnchangedFrames = skipUnchangedFrames;
+    }
+
+
+    public double getUnchangedFrameTolerance() {
+        return unchangedFrameTolerance;
+    }
+
+
+    /**
+     * Largest difference, in gray levels, between 64x64 thumbnails of two screenshots that are
+     * still considered the same screen.
+     */
+    public void setUnchangedFrameTolerance(double unchangedFrameTolerance) {
+        this.unchangedFrameTolerance = unchangedFrameTolerance;
+    }
+
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+
+    /**
+     * Deadline for polling the screen, in milliseconds. When set, the screen is polled until the
+     * deadline instead of the number of retries. 0, the default, uses the retries.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+
+    public PollingPolicy getPollingPolicy() {
+        return pollingPolicy;
+    }
+
+
+    public void setPollingPolicy(PollingPolicy pollingPolicy) {
+        this.pollingPolicy = pollingPolicy;
+    }
+
+
+    /**
+     * Interval before the first repeated poll, in milliseconds. Defaults to the retry wait time,
+     * or to 250 ms for the exponential and adaptive polling policies when the retry wait time
+     * is 0, because a backoff from 0 stays at 0.
+     */
+    public long getPollIntervalMillis() {
+        if (pollIntervalMillis >= 0) {
+            return pollIntervalMillis;
+        }
+        if (retryWaitTime == 0 && pollingPolicy != PollingPolicy.FIXED) {
+            return DEFAULT_BACKOFF_POLL_INTERVAL_MILLIS;
+        }
+        return retryWaitTime * 1000L;
+    }
+
+
+    /**
+     * Sets the interval before the first repeated poll. With 0 the exponential and adaptive
+     * polling policies poll without waiting, like the fixed one.
+     */
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+
+    public long getMaxPollIntervalMillis() {
+        return maxPollIntervalMillis;
+    }
+
+
+    /**
+     * Upper limit for the poll interval of the exponential and adaptive polling policies.
+     */
+    public void setMaxPollIntervalMillis(long maxPollIntervalMillis) {
+        this.maxPollIntervalMillis = maxPollIntervalMillis;
+    }
+
+
+    public double getPollBackoffFactor() {
+        return pollBackoffFactor;
+    }
+
+
+    public void setPollBackoffFactor(double pollBackoffFactor) {
+        this.pollBackoffFactor = pollBackoffFactor;
+    }
+
+
+    public double getPollJitter() {
+        return pollJitter;
+    }
+
+
+    /**
+     * Random variation of each poll interval, as a fraction of it. 0.1 makes every interval
+     * between 90% and 110% of its nominal value.
+     */
+    public void setPollJitter(double pollJitter) {
+        this.pollJitter = pollJitter;
+    }
+
+
+    public int getMaxInFlightFrames() {
+        return maxInFlightFrames;
+    }
+
+
+    /**
+     * Number of captured frames that may wait for matching in the asynchronous searches.
+     * Capturing pauses while that many frames are waiting.
+     */
+    public void setMaxInFlightFrames(int maxInFlightFrames) {
+        this.maxInFlightFrames = maxInFlightFrames;
+    }
+
+
+    public DebugArtifactMode getDebugArtifactMode() {
+        return debugArtifactMode;
+    }
+
+
+    /**
+     * When the scene annotated with the found homographies is written, to a file next to the
+     * screenshot with _annotated added to its name. The screenshot file itself is never
+     * modified. The annotated scene is rendered and written in the background.
+     */
+    public void setDebugArtifactMode(DebugArtifactMode debugArtifactMode) {
+        this.debugArtifactMode = debugArtifactMode;
+    }
+
+
+    public int getMaxPendingDebugArtifacts() {
+        return maxPendingDebugArtifacts;
+    }
+
+
+    /**
+     * Number of annotated scenes that may wait to be written. When more are produced than can
+     * be written, the drop policy decides which ones are skipped, so searches never wait for them.
+     */
+    public void setMaxPendingDebugArtifacts(int maxPendingDebugArtifacts) {
+        this.maxPendingDebugArtifacts = maxPendingDebugArtifacts;
+    }
+
+
+    public ArtifactDropPolicy getDebugArtifactDropPolicy() {
+        return debugArtifactDropPolicy;
+    }
+
+
+    public void setDebugArtifactDropPolicy(ArtifactDropPolicy debugArtifactDropPolicy) {
+        this.debugArtifactDropPolicy = debugArtifactDropPolicy;
+    }
+
+
+    public double getMatchDistanceRatio() {
+        return matchDistanceRatio;
+    }
+
+
+    /**
+     * Lowe ratio test: a match is kept only when its descriptor distance is below this share of
+     * the distance to the second best match. Lower values keep fewer but more distinctive matches.
+     */
+    public void setMatchDistanceRatio(double matchDistanceRatio) {
+        this.matchDistanceRatio = matchDistanceRatio;
+    }
+
+
+    public boolean isCrossCheckMatches() {
+        return crossCheckMatches;
+    }
+
+
+    /**
+     * Keeps only matches whose scene keypoint also has the query keypoint as its best match.
+     * Removes ambiguous matches from repeated elements at the cost of a second matching pass.
+     */
+    public void setCrossCheckMatches(boolean crossCheckMatches) {
+        this.crossCheckMatches = crossCheckMatches;
+    }
+
+
+    public HomographyMethod getHomographyMethod() {
+        return homographyMethod;
+    }
+
+
+    public void setHomographyMethod(HomographyMethod homographyMethod) {
+        this.homographyMethod = homographyMethod;
+    }
+
+
+    public double getReprojectionThreshold() {
+        return reprojectionThreshold;
+    }
+
+
+    /**
+     * Distance in pixels of the matched scene, within which a match agrees with a homography.
+     */
+    public void setReprojectionThreshold(double reprojectionThreshold) {
+        this.reprojectionThreshold = reprojectionThreshold;
+    }
+
+
+    public int getMaxHomographyIterations() {
+        return maxHomographyIterations;
+    }
+
+
+    public void setMaxHomographyIterations(int maxHomographyIterations) {
+        this.maxHomographyIterations = maxHomographyIterations;
+    }
+
+
+    public double getEarlyExitInlierRatio() {
+        return earlyExitInlierRatio;
+    }
+
+
+    /**
+     * Share of matches that a least squares fit has to agree with to be used as it is, without
+     * running RANSAC or LMEDS. Values above 1 always run the configured method.
+     */
+    public void setEarlyExitInlierRatio(double earlyExitInlierRatio) {
+        this.earlyExitInlierRatio = earlyExitInlierRatio;
+    }
+
+
     private int retries;
     private int retryWaitTime;
     private double tolerance;
     private boolean crop;
+    private boolean saveScreenshots;
+    private boolean saveCroppedImage;
+    private RecognitionMode recognitionMode;
+    private double templateMatchThreshold;
+    private int pyramidLevels;
+    private double refinementWindowScale;
+    private SearchRegion searchRegion;
+    private boolean searchNearLastLocation;
+    private double lastLocationPadding;
+    private boolean skipUnchangedFrames;
+    private double unchangedFrameTolerance;
+    private long timeoutMillis;
+    private PollingPolicy pollingPolicy;
+    private long pollIntervalMillis;
+    private long maxPollIntervalMillis;
+    private double pollBackoffFactor;
+    private double pollJitter;
+    private int maxInFlightFrames;
+    private DebugArtifactMode debugArtifactMode;
+    private int maxPendingDebugArtifacts;
+    private ArtifactDropPolicy debugArtifactDropPolicy;
+    private double matchDistanceRatio;
+    private boolean crossCheckMatches;
+    private HomographyMethod homographyMethod;
+    private double reprojectionThreshold;
+    private int maxHomographyIterations;
+    private double earlyExitInlierRatio;
 }
@@ -1,6 +1,15 @@
 package objects;
 
-public class ImageSearchResult {
+import org.opencv.core.Mat;
+
+/**
+ * Result of a search on the screen. A found result holds the screenshot it was found in and,
+ * when cropping is enabled, the cropped image. Closing the result releases both right away
+ * instead of when they are garbage collected, so results should be closed when they are no
+ * longer needed, for example with try-with-resources. The location and file names stay
+ * usable after closing.
+ */
+public class ImageSearchResult implements AutoCloseable {
 
     public ImageSearchResult(){
         this.screenshotFile = null;
@@ -13,7 +22,7 @@ public class ImageSearchResult {
     }
 
     public boolean isFound(){
-        return screenshotFile!=null && imageLocation!=null;
+        return imageLocation!=null;
     }
 
     public String getScreenshotFile() {
@@ -23,6 +32,42 @@ public class ImageSearchResult {
         this.screenshotFile = screenshotFile;
     }
 
+    /**
+     * The screenshot the image was found in, held by this result until it is closed.
+     */
+    public Scene getScene() {
+        return scene;
+    }
+
+    public void setScene(Scene scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * The found image cut out of the full resolution screenshot when cropping is enabled, or
+     * null. Shares its pixels with the screenshot instead of copying them, and keeps them alive
+     * after the scene has been released, until the result is closed.
+     */
+    public Mat getCroppedImage() {
+        return croppedImage;
+    }
+
+    public void setCroppedImage(Mat croppedImage) {
+        this.croppedImage = croppedImage;
+    }
+
+    /**
+     * The file the cropped image is written to when saving cropped images is enabled, or null.
+     * The file is written in the background.
+     */
+    public String getCroppedImageFile() {
+        return croppedImageFile;
+    }
+
+    public void setCroppedImageFile(String croppedImageFile) {
+        this.croppedImageFile = croppedImageFile;
+    }
+
     public ImageLocation getImageLocation() {
         return imageLocation;
     }
@@ -31,6 +76,25 @@ public class ImageSearchResult {
         this.imageLocation = imageLocation;
     }
 
+    /**
+     * Releases the scene and the cropped image held by this result. Closing it again does
+     * nothing.
+     */
+    @Override
+    public void close() {
+        if (croppedImage != null) {
+            croppedImage.release();
+            croppedImage = null;
+        }
+        if (scene != null) {
+            scene.release();
+            scene = null;
+        }
+    }
+
     private String screenshotFile;
     private ImageLocation imageLocation;
+    private Scene scene;
+    private Mat croppedImage;
+    private String croppedImageFile;
 }
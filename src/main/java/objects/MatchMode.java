@@ -0,0 +1,23 @@
+package objects;
+
+public enum MatchMode {
+    /** Done as soon as at least one of the query images is found on the screen. */
+    ANY_OF,
+    /** Done when all of the query images are found on the same screen. */
+    ALL_OF;
+
+    /**
+     * Whether the result of a single query image decides the outcome regardless of the rest:
+     * a found image for ANY_OF, a missing image for ALL_OF.
+     */
+    public boolean isDecidedBy(boolean found) {
+        return this == ANY_OF ? found : !found;
+    }
+
+    public boolean isSatisfied(int foundCount, int queryCount) {
+        if (this == ANY_OF) {
+            return foundCount > 0;
+        }
+        return foundCount == queryCount;
+    }
+}
@@ -0,0 +1,40 @@
+package objects;
+
+/**
+ * How tesseract splits an image into text, in the order of its page segmentation mode numbers.
+ */
+public enum PageSegmentationMode {
+    /** Orientation and script detection only. */
+    OSD_ONLY,
+    /** Automatic page segmentation with orientation and script detection. */
+    AUTO_OSD,
+    /** Automatic page segmentation without OCR. */
+    AUTO_ONLY,
+    /** Fully automatic page segmentation, what the tesseract command does by default. */
+    AUTO,
+    /** A single column of text of variable sizes. */
+    SINGLE_COLUMN,
+    /** A single uniform block of vertically aligned text. */
+    SINGLE_BLOCK_VERT_TEXT,
+    /** A single uniform block of text. */
+    SINGLE_BLOCK,
+    /** A single text line, such as a score or a timer. */
+    SINGLE_LINE,
+    /** A single word, such as a button caption. */
+    SINGLE_WORD,
+    /** A single word in a circle. */
+    CIRCLE_WORD,
+    /** A single character. */
+    SINGLE_CHAR,
+    /** As much text as possible in no particular order. */
+    SPARSE_TEXT,
+    /** Sparse text with orientation and script detection. */
+    SPARSE_TEXT_OSD;
+
+    /**
+     * @return The mode number tesseract uses
+     */
+    public int getValue() {
+        return ordinal();
+    }
+}
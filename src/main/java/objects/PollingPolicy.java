@@ -0,0 +1,13 @@
+package objects;
+
+public enum PollingPolicy {
+    /** The same poll interval between every screenshot. */
+    FIXED,
+    /** The poll interval is multiplied by the backoff factor after every screenshot. */
+    EXPONENTIAL,
+    /**
+     * The poll interval is multiplied by the backoff factor while the screen stays the same and
+     * goes back to the initial interval as soon as the screen changes.
+     */
+    ADAPTIVE
+}
@@ -0,0 +1,12 @@
+package objects;
+
+public enum RecognitionMode {
+    /** AKAZE feature matching and homography only. */
+    FEATURES,
+    /**
+     * Normalized cross-correlation template matching first, falling back to feature matching
+     * when the best score is below the template match threshold. Suited for pixel-exact UI
+     * assets shown at their original scale without rotation.
+     */
+    TEMPLATE_THEN_FEATURES
+}
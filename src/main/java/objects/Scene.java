@@ -0,0 +1,119 @@
+package objects;
+
+import java.util.function.Consumer;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A screenshot decoded once and shared by every step of a search. Holds the full resolution
+ * image, the downscaled image used for matching and the factor between the two.
+ *
+ * The native memory of the images is freed when the last holder of the scene releases it.
+ * Whoever creates a scene holds it once, background writers retain it while they use it.
+ */
+public class Scene {
+
+    public Scene(String file, Mat image, Mat resizedImage, double resizeFactor) {
+        this(file, image, resizedImage, resizeFactor, Mat::release);
+    }
+
+    /**
+     * @param resizedImageRecycler Receives the resized image when the scene is released, for
+     * example to reuse its buffer for the next scene
+     */
+    public Scene(String file, Mat image, Mat resizedImage, double resizeFactor, Consumer<Mat> resizedImageRecycler) {
+        this.file = file;
+        this.image = image;
+        this.resizedImage = resizedImage;
+        this.resizeFactor = resizeFactor;
+        this.resizedImageRecycler = resizedImageRecycler;
+        this.references = 1;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public Mat getImage() {
+        return image;
+    }
+
+    public Mat getResizedImage() {
+        return resizedImage;
+    }
+
+    public double getResizeFactor() {
+        return resizeFactor;
+    }
+
+    /**
+     * Grayscale version of the resized image, converted on first use and shared by the
+     * feature extraction and template matching of every query image.
+     */
+    public synchronized Mat getResizedGrayImage() {
+        if (resizedGrayImage == null) {
+            if (resizedImage.channels() == 1) {
+                resizedGrayImage = resizedImage;
+            } else {
+                resizedGrayImage = new Mat();
+                int conversion = resizedImage.channels() == 4 ? Imgproc.COLOR_BGRA2GRAY : Imgproc.COLOR_BGR2GRAY;
+                Imgproc.cvtColor(resizedImage, resizedGrayImage, conversion);
+            }
+        }
+        return resizedGrayImage;
+    }
+
+    /**
+     * Holds the scene once more, until a matching call to release.
+     *
+     * @throws IllegalStateException if the scene has already been released
+     */
+    public synchronized Scene retain() {
+        if (references == 0) {
+            throw new IllegalStateException("Scene has already been released");
+        }
+        references++;
+        return this;
+    }
+
+    /**
+     * Stops holding the scene and frees its images when nobody holds it anymore.
+     */
+    public void release() {
+        Mat gray;
+        synchronized (this) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+            gray = resizedGrayImage;
+        }
+        if (gray != null && gray != resizedImage) {
+            gray.release();
+        }
+        if (resizedImage != image) {
+            resizedImageRecycler.accept(resizedImage);
+        }
+        image.release();
+    }
+
+    public boolean isResized() {
+        return resizeFactor != 1;
+    }
+
+    public int getWidth() {
+        return image.cols();
+    }
+
+    public int getHeight() {
+        return image.rows();
+    }
+
+    private final String file;
+    private final Mat image;
+    private final Mat resizedImage;
+    private final double resizeFactor;
+    private final Consumer<Mat> resizedImageRecycler;
+    private Mat resizedGrayImage;
+    private int references;
+}
@@ -0,0 +1,94 @@
+package objects;
+
+import org.opencv.core.Rect;
+
+/**
+ * Part of the screenshot to search in, either in the coordinates of found locations or as
+ * fractions of the screenshot width and height.
+ */
+public class SearchRegion {
+
+    private SearchRegion(double x, double y, double width, double height, boolean fractional) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.fractional = fractional;
+    }
+
+    /**
+     * Region in the same units as the locations found on the platform: screenshot pixels on
+     * Android and points on iOS, where a retina screenshot has two or three pixels per point.
+     */
+    public static SearchRegion absolute(int x, int y, int width, int height) {
+        return new SearchRegion(x, y, width, height, false);
+    }
+
+    /**
+     * Region given as fractions of the screenshot, for example fraction(0, 0.9, 1, 0.1) for the
+     * bottom tenth of the screen.
+     */
+    public static SearchRegion fraction(double x, double y, double width, double height) {
+        return new SearchRegion(x, y, width, height, true);
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public boolean isFractional() {
+        return fractional;
+    }
+
+    /**
+     * The region with absolute coordinates multiplied by the given factor, for example to turn
+     * a region in iOS points into screenshot pixels. Fractional regions are returned as they are.
+     */
+    public SearchRegion scaled(double factor) {
+        if (fractional || factor == 1) {
+            return this;
+        }
+        return new SearchRegion(x * factor, y * factor, width * factor, height * factor, false);
+    }
+
+    /**
+     * Pixel rectangle of an absolute region already in screenshot pixels, or of a fractional
+     * region, in a screenshot of the given size, clipped to the
+     * screenshot. Returns null when nothing of the region is inside the screenshot.
+     */
+    public Rect toRect(int sceneWidth, int sceneHeight) {
+        double scaleX = fractional ? sceneWidth : 1;
+        double scaleY = fractional ? sceneHeight : 1;
+        int x0 = (int) Math.max(0, Math.floor(x * scaleX));
+        int y0 = (int) Math.max(0, Math.floor(y * scaleY));
+        int x1 = (int) Math.min(sceneWidth, Math.ceil((x + width) * scaleX));
+        int y1 = (int) Math.min(sceneHeight, Math.ceil((y + height) * scaleY));
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    @Override
+    public String toString() {
+        return (fractional ? "fraction " : "") + "{" + x + ", " + y + ", " + width + "x" + height + "}";
+    }
+
+    private final double x;
+    private final double y;
+    private final double width;
+    private final double height;
+    private final boolean fractional;
+}
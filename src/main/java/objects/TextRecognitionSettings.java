@@ -0,0 +1,56 @@
+package objects;
+
+public class TextRecognitionSettings {
+
+    private final String DEFAULT_LANGUAGE = "eng";
+    private final PageSegmentationMode DEFAULT_PAGE_SEGMENTATION_MODE = PageSegmentationMode.AUTO;
+
+    public TextRecognitionSettings(){
+        this.language = DEFAULT_LANGUAGE;
+        this.pageSegmentationMode = DEFAULT_PAGE_SEGMENTATION_MODE;
+        this.characterWhitelist = null;
+    }
+
+
+    public String getLanguage() {
+        return language;
+    }
+
+
+    /**
+     * Tesseract language or languages joined with +, for example "eng" or "eng+fin". The
+     * trained data of each language must be in the tessdata directory.
+     */
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+
+    public PageSegmentationMode getPageSegmentationMode() {
+        return pageSegmentationMode;
+    }
+
+
+    public void setPageSegmentationMode(PageSegmentationMode pageSegmentationMode) {
+        this.pageSegmentationMode = pageSegmentationMode;
+    }
+
+
+    public String getCharacterWhitelist() {
+        return characterWhitelist;
+    }
+
+
+    /**
+     * Characters the text may consist of, for example "0123456789" for a score. Null allows
+     * every character of the language.
+     */
+    public void setCharacterWhitelist(String characterWhitelist) {
+        this.characterWhitelist = characterWhitelist;
+    }
+
+
+    private String language;
+    private PageSegmentationMode pageSegmentationMode;
+    private String characterWhitelist;
+}
@@ -0,0 +1,119 @@
+package imagerecognition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import objects.DebugArtifactMode;
+import objects.ImageRecognitionSettings;
+import objects.PlatformType;
+import objects.RecognitionMode;
+
+/**
+ * Checks what a search writes next to the screenshot it searched in.
+ */
+public class DebugArtifactTest {
+
+    // Above the working resolution, so that the scene is resized for matching
+    private static final int SCENE_WIDTH = 1200;
+    private static final int SCENE_HEIGHT = 1600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        // The shared loader only works on Java 8 unless java.library.path has the library
+        try {
+            AkazeImageFinder.setupOpenCVEnv();
+        } catch (LinkageError e) {
+            Assume.assumeNoException("OpenCV native library could not be loaded", e);
+        }
+    }
+
+    @Test
+    public void missLeavesResizedScreenshotUnchanged() throws Exception {
+        assertMissLeavesScreenshotUnchanged(DebugArtifactMode.ALWAYS);
+    }
+
+    @Test
+    public void missOnFailureLeavesResizedScreenshotUnchanged() throws Exception {
+        assertMissLeavesScreenshotUnchanged(DebugArtifactMode.ON_FAILURE);
+    }
+
+    private void assertMissLeavesScreenshotUnchanged(DebugArtifactMode mode) throws Exception {
+        File queryFile = folder.newFile("query.png");
+        File sceneFile = folder.newFile("scene.png");
+        writeImage(queryFile, blocks(64, 128, new Random(42)));
+        writeImage(sceneFile, new Mat(SCENE_HEIGHT, SCENE_WIDTH, CvType.CV_8UC3, new Scalar(235, 235, 235)));
+        byte[] captured = Files.readAllBytes(sceneFile.toPath());
+
+        ImageRecognitionSettings settings = new ImageRecognitionSettings();
+        settings.setDebugArtifactMode(mode);
+        try (RecognitionSession session = new RecognitionSession(PlatformType.ANDROID, null, settings, new AkazeImageFinder(), true)) {
+            assertNull(session.findImage(queryFile.getAbsolutePath(), sceneFile.getAbsolutePath()));
+            session.flushScreenshots();
+        }
+        assertArrayEquals(captured, Files.readAllBytes(sceneFile.toPath()));
+        assertFalse(new File(folder.getRoot(), "scene_annotated.png").exists());
+    }
+
+    @Test
+    public void hitIsAnnotatedInFileOfItsOwn() throws Exception {
+        File queryFile = folder.newFile("query.png");
+        File sceneFile = folder.newFile("scene.png");
+        Mat query = blocks(64, 128, new Random(42));
+        Mat scene = new Mat(SCENE_HEIGHT, SCENE_WIDTH, CvType.CV_8UC3, new Scalar(235, 235, 235));
+        query.copyTo(scene.submat(new Rect(400, 900, query.cols(), query.rows())));
+        writeImage(queryFile, query);
+        writeImage(sceneFile, scene);
+        byte[] captured = Files.readAllBytes(sceneFile.toPath());
+
+        ImageRecognitionSettings settings = new ImageRecognitionSettings();
+        settings.setRecognitionMode(RecognitionMode.TEMPLATE_THEN_FEATURES);
+        try (RecognitionSession session = new RecognitionSession(PlatformType.ANDROID, null, settings, new AkazeImageFinder(), true)) {
+            session.getScreenGeometryCache().setScreenSize(PlatformType.ANDROID, null, new Size(SCENE_WIDTH, SCENE_HEIGHT));
+            assertNotNull(session.findImage(queryFile.getAbsolutePath(), sceneFile.getAbsolutePath()));
+            session.flushScreenshots();
+        }
+        assertArrayEquals(captured, Files.readAllBytes(sceneFile.toPath()));
+        assertTrue(new File(folder.getRoot(), "scene_annotated.png").isFile());
+    }
+
+    private static Mat blocks(int height, int width, Random random) {
+        int block = 16;
+        Mat image = new Mat(height, width, CvType.CV_8UC3);
+        for (int y = 0; y < height; y += block) {
+            for (int x = 0; x < width; x += block) {
+                Scalar color = new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+                Imgproc.rectangle(image, new Point(x, y), new Point(x + block - 1, y + block - 1), color, -1);
+            }
+        }
+        return image;
+    }
+
+    private static void writeImage(File file, Mat image) {
+        Imgcodecs.imwrite(file.getAbsolutePath(), image);
+        image.release();
+    }
+}
@@ -0,0 +1,165 @@
+package imagerecognition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import objects.DebugArtifactMode;
+import objects.ImageLocation;
+import objects.ImageRecognitionSettings;
+import objects.ImageSearchResult;
+import objects.PlatformType;
+import objects.RecognitionMode;
+
+/**
+ * Searches a file scene and a captured frame thousands of times and checks that the resized
+ * scene buffers come from the pool and that the resident memory of the process stops growing
+ * once the caches are warm. Takes minutes, so it only runs with the soak profile:
+ * mvn test -Psoak -Dtest=FindImageSoakTest
+ */
+public class FindImageSoakTest {
+
+    // Just above the working resolution, so that every search resizes the scene
+    private static final int SCENE_WIDTH = 760;
+    private static final int SCENE_HEIGHT = 800;
+    private static final Rect QUERY_RECT = new Rect(240, 500, 128, 64);
+    private static final int WARMUP_SEARCHES = 100;
+    private static final int SEARCHES = 2000;
+    // A leaked scene is several megabytes, so a leak on every search goes far past this
+    private static final long MAX_RSS_GROWTH_KB = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        // The shared loader only works on Java 8 unless java.library.path has the library
+        try {
+            AkazeImageFinder.setupOpenCVEnv();
+        } catch (LinkageError e) {
+            Assume.assumeNoException("OpenCV native library could not be loaded", e);
+        }
+    }
+
+    @Test
+    public void repeatedSearchesReuseBuffersAndKeepMemoryBounded() throws Exception {
+        File queryFile = folder.newFile("query.png");
+        File sceneFile = folder.newFile("scene.png");
+        File frames = folder.newFolder("frames");
+        writeImages(queryFile, sceneFile);
+        Files.copy(sceneFile.toPath(), new File(frames, "frame.png").toPath());
+
+        ImageRecognitionSettings settings = new ImageRecognitionSettings();
+        settings.setRecognitionMode(RecognitionMode.TEMPLATE_THEN_FEATURES);
+        settings.setDebugArtifactMode(DebugArtifactMode.OFF);
+        settings.setSaveScreenshots(false);
+        settings.setRetries(1);
+        settings.setCrop(true);
+
+        AkazeImageFinder imageFinder = new AkazeImageFinder();
+        MatPool matPool = imageFinder.getMatPool();
+        try (RecognitionSession session = new RecognitionSession(PlatformType.ANDROID, null, settings, imageFinder, true)) {
+            session.getScreenGeometryCache().setScreenSize(PlatformType.ANDROID, null, new Size(SCENE_WIDTH, SCENE_HEIGHT));
+            session.setFrameSource(new DirectoryFrameSource(frames));
+            String query = queryFile.getAbsolutePath();
+            String screenshots = folder.getRoot().getAbsolutePath() + File.separator;
+
+            for (int i = 0; i < WARMUP_SEARCHES; i++) {
+                search(session, query, sceneFile, screenshots, i);
+            }
+            long allocatedAfterWarmup = matPool.getAllocated();
+            long reusedAfterWarmup = matPool.getReused();
+            long rssAfterWarmup = residentSetKilobytes();
+
+            for (int i = 0; i < SEARCHES; i++) {
+                search(session, query, sceneFile, screenshots, i);
+            }
+
+            assertEquals("Buffers were allocated after warmup", allocatedAfterWarmup, matPool.getAllocated());
+            assertEquals(SEARCHES, matPool.getReused() - reusedAfterWarmup);
+            if (rssAfterWarmup > 0) {
+                System.gc();
+                long growth = residentSetKilobytes() - rssAfterWarmup;
+                assertTrue("Resident memory grew by " + growth + " kB", growth < MAX_RSS_GROWTH_KB);
+            }
+        }
+    }
+
+    /**
+     * Alternates between a scene file and a captured frame, cropping and closing the result of
+     * the latter.
+     */
+    private static void search(RecognitionSession session, String query, File sceneFile, String screenshots, int i) throws Exception {
+        if (i % 2 == 0) {
+            ImageLocation location = session.findImage(query, sceneFile.getAbsolutePath());
+            assertNotNull(location);
+            return;
+        }
+        ImageSearchResult result = session.findImageOnScreen(query, screenshots);
+        try {
+            assertTrue(result.isFound());
+            assertNotNull(result.getCroppedImage());
+        } finally {
+            result.close();
+        }
+        assertNull(result.getScene());
+        assertNull(result.getCroppedImage());
+    }
+
+    /**
+     * A query of coarse random blocks, which template matching still finds after the scene is
+     * resized to the working resolution, and a plain scene with the query in it.
+     */
+    private static void writeImages(File queryFile, File sceneFile) {
+        Random random = new Random(42);
+        int block = 16;
+        Mat query = new Mat(QUERY_RECT.height, QUERY_RECT.width, CvType.CV_8UC3);
+        for (int y = 0; y < QUERY_RECT.height; y += block) {
+            for (int x = 0; x < QUERY_RECT.width; x += block) {
+                Scalar color = new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+                Imgproc.rectangle(query, new Point(x, y), new Point(x + block - 1, y + block - 1), color, -1);
+            }
+        }
+        Mat scene = new Mat(SCENE_HEIGHT, SCENE_WIDTH, CvType.CV_8UC3, new Scalar(235, 235, 235));
+        query.copyTo(scene.submat(QUERY_RECT));
+        Imgcodecs.imwrite(queryFile.getAbsolutePath(), query);
+        Imgcodecs.imwrite(sceneFile.getAbsolutePath(), scene);
+        query.release();
+        scene.release();
+    }
+
+    /**
+     * Resident set size of this process, or 0 where /proc is not available.
+     */
+    private static long residentSetKilobytes() throws Exception {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return 0;
+        }
+        for (String line : Files.readAllLines(status.toPath())) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,154 @@
+package imagerecognition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * Drives MatcherWorkerPool through StandInMatcherWorker processes, and AkazeMatchWorker
+ * through StandInAkazeMatch, both started with the java executable running the tests.
+ */
+public class MatcherWorkerPoolTest {
+
+    private Mat query;
+    private Mat scene;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        // The shared loader only works on Java 8 unless java.library.path has the library
+        try {
+            AkazeImageFinder.setupOpenCVEnv();
+        } catch (LinkageError e) {
+            Assume.assumeNoException("OpenCV native library could not be loaded", e);
+        }
+    }
+
+    @Before
+    public void createImages() {
+        query = new Mat(40, 60, CvType.CV_8UC1, new Scalar(10));
+        scene = new Mat(300, 400, CvType.CV_8UC1, new Scalar(20));
+    }
+
+    @After
+    public void releaseImages() {
+        query.release();
+        scene.release();
+    }
+
+    private static List<String> java(Class<?> mainClass, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    private static MatcherWorkerPool standInPool(String mode) {
+        return new MatcherWorkerPool(java(StandInMatcherWorker.class, mode), 1);
+    }
+
+    private void assertGridPairs(KeypointPairs pairs) {
+        assertEquals(StandInMatcherWorker.PAIRS, pairs.size());
+        float[] objectPoints = pairs.getObjectPoints();
+        float[] scenePoints = pairs.getScenePoints();
+        assertEquals(query.cols() / 6f, objectPoints[0], 1e-3);
+        assertEquals(objectPoints[0] + StandInMatcherWorker.SCENE_OFFSET_X, scenePoints[0], 1e-3);
+        assertEquals(objectPoints[1] + StandInMatcherWorker.SCENE_OFFSET_Y, scenePoints[1], 1e-3);
+    }
+
+    @Test
+    public void matchReturnsPairsOfTheWorker() throws Exception {
+        try (MatcherWorkerPool pool = standInPool("ok")) {
+            assertGridPairs(pool.match(query, scene));
+            assertGridPairs(pool.match(query, scene.submat(10, 100, 10, 200)));
+            assertEquals(0, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void idleWorkerAnsweringPingIsKept() throws Exception {
+        try (MatcherWorkerPool pool = standInPool("ok")) {
+            pool.setHealthCheckIntervalMillis(0);
+            assertGridPairs(pool.match(query, scene));
+            assertGridPairs(pool.match(query, scene));
+            assertEquals(0, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void idleWorkerFailingPingIsRestarted() throws Exception {
+        try (MatcherWorkerPool pool = standInPool("noping")) {
+            pool.setHealthCheckIntervalMillis(0);
+            assertGridPairs(pool.match(query, scene));
+            assertGridPairs(pool.match(query, scene));
+            assertEquals(1, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void crashedWorkerIsRestartedAndRequestRetried() throws Exception {
+        try (MatcherWorkerPool pool = standInPool("crash")) {
+            assertGridPairs(pool.match(query, scene));
+            assertGridPairs(pool.match(query, scene));
+            assertEquals(1, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void hungWorkerIsKilledAfterTimeout() throws Exception {
+        try (MatcherWorkerPool pool = standInPool("hang")) {
+            // The first request also waits for the worker JVM to start
+            assertGridPairs(pool.match(query, scene));
+            pool.setRequestTimeoutMillis(3000);
+            long start = System.nanoTime();
+            assertGridPairs(pool.match(query, scene));
+            long millis = (System.nanoTime() - start) / 1000000;
+            assertTrue("Took " + millis + " ms", millis >= 3000 && millis < 30000);
+            assertEquals(1, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void workerErrorGivesNoPairsWithoutRestart() throws Exception {
+        try (MatcherWorkerPool pool = standInPool("error")) {
+            assertEquals(0, pool.match(query, scene).size());
+            assertEquals(0, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void akazeMatchWorkerAnswersThroughAkazeMatch() throws Exception {
+        List<String> akazeMatch = java(StandInAkazeMatch.class);
+        List<String> command = java(AkazeMatchWorker.class, akazeMatch.toArray(new String[0]));
+        try (MatcherWorkerPool pool = new MatcherWorkerPool(command, 1)) {
+            pool.setHealthCheckIntervalMillis(0);
+            assertGridPairs(pool.match(query, scene));
+            assertGridPairs(pool.match(query, scene));
+            // akaze_match failing is reported as an error, not as a broken worker
+            assertEquals(0, pool.match(query, new Mat(0, 0, CvType.CV_8UC1)).size());
+            assertEquals(0, pool.getRestarts());
+        }
+    }
+
+    @Test
+    public void parsesNumericAndStringCoordinates() throws Exception {
+        KeypointPairs pairs = AkazeMatchWorker.parsePairs("{\"keypoint-pairs\": [{\"x1\": 1.5, \"y1\": \"2\", \"x2\": 3, \"y2\": \"4.25\"}, {\"x1\": 1}]}");
+        assertEquals(1, pairs.size());
+        assertEquals(4.25f, pairs.getScenePoints()[1], 0);
+    }
+}
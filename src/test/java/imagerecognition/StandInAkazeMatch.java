@@ -0,0 +1,42 @@
+package imagerecognition;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Scanner;
+
+/**
+ * Stands in for the akaze_match binary in tests, taking the same arguments. Writes the pairs
+ * of StandInMatcherWorker for the size of the query image to the JSON file, with coordinates
+ * as strings as akaze_match writes them. Exits with 1 when the scene is empty.
+ */
+public class StandInAkazeMatch {
+
+    public static void main(String[] args) throws IOException {
+        int[] querySize = pgmSize(new File(args[0]));
+        int[] sceneSize = pgmSize(new File(args[1]));
+        if (sceneSize[0] == 0 || sceneSize[1] == 0) {
+            System.out.println("Cannot detect features in an empty scene");
+            System.exit(1);
+        }
+        File jsonFile = new File(args[3]);
+        KeypointPairs pairs = StandInMatcherWorker.grid(querySize[0], querySize[1]);
+        StringBuilder json = new StringBuilder("{\"keypoint-pairs\": [");
+        for (int i = 0; i < pairs.size(); i++) {
+            json.append(i > 0 ? ", " : "").append(String.format("{\"x1\": \"%s\", \"y1\": \"%s\", \"x2\": \"%s\", \"y2\": \"%s\"}",
+                    pairs.getObjectPoints()[i * 2], pairs.getObjectPoints()[i * 2 + 1], pairs.getScenePoints()[i * 2], pairs.getScenePoints()[i * 2 + 1]));
+        }
+        json.append("]}");
+        Files.write(jsonFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int[] pgmSize(File file) throws IOException {
+        try (Scanner header = new Scanner(file, "US-ASCII")) {
+            if (!header.next().equals("P5")) {
+                throw new IOException("Not a PGM file: " + file);
+            }
+            return new int[]{header.nextInt(), header.nextInt()};
+        }
+    }
+}
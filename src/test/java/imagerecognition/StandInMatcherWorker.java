@@ -0,0 +1,76 @@
+package imagerecognition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Matcher worker that stands in for a real one in tests. Answers every match with pairs on a
+ * grid over the query image, moved by SCENE_OFFSET_X and SCENE_OFFSET_Y in the scene, and
+ * pings with no pairs. The mode given as the first argument makes it misbehave:
+ *
+ * <ul>
+ * <li>ok: answers every request</li>
+ * <li>crash: exits on its second match request</li>
+ * <li>hang: stops answering on its second match request</li>
+ * <li>error: answers every match request with an error</li>
+ * <li>noping: exits when pinged</li>
+ * </ul>
+ */
+public class StandInMatcherWorker {
+
+    static final float SCENE_OFFSET_X = 100;
+    static final float SCENE_OFFSET_Y = 200;
+    static final int PAIRS = 15;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String mode = args.length > 0 ? args[0] : "ok";
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+        int matches = 0;
+        while (true) {
+            byte[] request;
+            try {
+                request = MatcherProtocol.read(in);
+            } catch (EOFException e) {
+                return;
+            }
+            if (request[0] == MatcherProtocol.PING) {
+                if (mode.equals("noping")) {
+                    System.exit(3);
+                }
+                MatcherProtocol.write(out, MatcherProtocol.encodePairs(new KeypointPairs(0)));
+                continue;
+            }
+            matches++;
+            System.err.println("match request " + matches);
+            if (matches == 2 && mode.equals("crash")) {
+                System.exit(3);
+            }
+            if (matches == 2 && mode.equals("hang")) {
+                Thread.sleep(Long.MAX_VALUE);
+            }
+            if (mode.equals("error")) {
+                MatcherProtocol.write(out, MatcherProtocol.encodeError("cannot match"));
+                continue;
+            }
+            MatcherProtocol.GrayImage query = MatcherProtocol.decodeMatch(request)[0];
+            MatcherProtocol.write(out, MatcherProtocol.encodePairs(grid(query.width, query.height)));
+        }
+    }
+
+    static KeypointPairs grid(int width, int height) {
+        KeypointPairs pairs = new KeypointPairs(PAIRS);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 3; j++) {
+                float x = width * (i + 1) / 6f;
+                float y = height * (j + 1) / 4f;
+                pairs.add(x, y, x + SCENE_OFFSET_X, y + SCENE_OFFSET_Y);
+            }
+        }
+        return pairs;
+    }
+}